@@ -0,0 +1,191 @@
+import java.nio.ByteBuffer;
+
+// Incremental HTTP/1.x request parser that works in place on a reusable heap ByteBuffer.
+// The buffer stays in fill mode (position = bytes received so far) and may be handed in
+// again after every read; scanning resumes where it stopped. Nothing is copied: the parser
+// only records offsets into the backing array, and SimpleServer.Request turns them into
+// strings when (and if) a handler asks for them.
+final class HttpRequestParser {
+    static final int MAX_HEADER_BYTES = 8192;
+    static final int MAX_HEADERS = 64;
+
+    enum Status { INCOMPLETE, COMPLETE, BAD_REQUEST, HEADERS_TOO_LARGE, BODY_TOO_LARGE, NOT_IMPLEMENTED }
+
+    private static final int REQUEST_LINE = 0;
+    private static final int HEADERS = 1;
+    private static final int BODY = 2;
+    private static final int DONE = 3;
+
+    private final SimpleServer.Request request;
+    private int state = REQUEST_LINE;
+    private int start;     // first byte of the current request, past any leading blank lines
+    private int lineStart; // first byte of the line being scanned
+    private int cursor;    // next byte to look at
+    private int end;       // first byte after the request, once DONE
+    private boolean sawContentLength;
+    private boolean sawTransferEncoding;
+
+    HttpRequestParser(SimpleServer.Request request) {
+        this.request = request;
+    }
+
+    SimpleServer.Request request() {
+        return request;
+    }
+
+    Status parse(ByteBuffer buffer) {
+        byte[] buf = buffer.array();
+        int limit = buffer.position();
+        request.buf = buf;
+
+        while (state != DONE) {
+            if (state == BODY) {
+                int bodyEnd = request.bodyStart + request.contentLength;
+                if (bodyEnd > buffer.capacity()) return Status.BODY_TOO_LARGE;
+                if (bodyEnd > limit) return Status.INCOMPLETE;
+                end = bodyEnd;
+                state = DONE;
+                break;
+            }
+
+            int newline = indexOf(buf, (byte) '\n', cursor, limit);
+            if (newline < 0) {
+                cursor = limit;
+                if (limit - start > MAX_HEADER_BYTES || limit == buffer.capacity()) {
+                    return Status.HEADERS_TOO_LARGE;
+                }
+                return Status.INCOMPLETE;
+            }
+            cursor = newline + 1;
+            if (cursor - start > MAX_HEADER_BYTES) return Status.HEADERS_TOO_LARGE;
+
+            int lineEnd = newline > lineStart && buf[newline - 1] == '\r' ? newline - 1 : newline;
+            Status error = state == REQUEST_LINE
+                    ? requestLine(buf, lineStart, lineEnd)
+                    : headerLine(buf, lineStart, lineEnd);
+            lineStart = cursor;
+            if (error != null) return error;
+        }
+        return Status.COMPLETE;
+    }
+
+    // Drops the completed request from the buffer, keeping any pipelined bytes behind it.
+    void next(ByteBuffer buffer) {
+        buffer.flip();
+        buffer.position(end);
+        buffer.compact();
+        state = REQUEST_LINE;
+        start = 0;
+        lineStart = 0;
+        cursor = 0;
+        end = 0;
+        sawContentLength = false;
+        sawTransferEncoding = false;
+        request.clear();
+    }
+
+    private Status requestLine(byte[] buf, int from, int to) {
+        if (from == to) {
+            // Blank lines ahead of a request line are tolerated (RFC 9112 section 2.2)
+            start = cursor;
+            return null;
+        }
+
+        int sp1 = indexOf(buf, (byte) ' ', from, to);
+        int sp2 = sp1 < 0 ? -1 : indexOf(buf, (byte) ' ', sp1 + 1, to);
+        if (sp1 <= from || sp2 <= sp1 + 1 || sp2 + 1 >= to || indexOf(buf, (byte) ' ', sp2 + 1, to) >= 0) {
+            return Status.BAD_REQUEST;
+        }
+        if (!regionEquals(buf, sp2 + 1, to, "HTTP/1.1") && !regionEquals(buf, sp2 + 1, to, "HTTP/1.0")) {
+            return Status.BAD_REQUEST;
+        }
+
+        request.methodStart = from;
+        request.methodEnd = sp1;
+        request.pathStart = sp1 + 1;
+        request.pathEnd = sp2;
+        request.versionStart = sp2 + 1;
+        request.versionEnd = to;
+        state = HEADERS;
+        return null;
+    }
+
+    private Status headerLine(byte[] buf, int from, int to) {
+        if (from == to) {
+            // Chunked bodies are not decoded, so the body's end is unknown and the connection
+            // cannot be reused; with a Content-Length as well the framing is ambiguous
+            if (sawTransferEncoding) return sawContentLength ? Status.BAD_REQUEST : Status.NOT_IMPLEMENTED;
+            request.bodyStart = cursor;
+            end = cursor;
+            state = request.contentLength > 0 ? BODY : DONE;
+            return null;
+        }
+
+        // Obsolete line folding and nameless headers are rejected outright
+        if (buf[from] == ' ' || buf[from] == '\t') return Status.BAD_REQUEST;
+        int colon = indexOf(buf, (byte) ':', from, to);
+        if (colon <= from) return Status.BAD_REQUEST;
+        if (request.headerCount == MAX_HEADERS) return Status.HEADERS_TOO_LARGE;
+
+        int valueStart = colon + 1;
+        int valueEnd = to;
+        while (valueStart < valueEnd && isWhitespace(buf[valueStart])) valueStart++;
+        while (valueEnd > valueStart && isWhitespace(buf[valueEnd - 1])) valueEnd--;
+
+        int slot = request.headerCount++ * 4;
+        int[] offsets = request.headerOffsets;
+        offsets[slot] = from;
+        offsets[slot + 1] = colon;
+        offsets[slot + 2] = valueStart;
+        offsets[slot + 3] = valueEnd;
+
+        if (regionEqualsIgnoreCase(buf, from, colon, "Content-Length")) {
+            // Parsed here so framing never needs a String; duplicates are a smuggling vector
+            if (sawContentLength || valueStart == valueEnd || valueEnd - valueStart > 9) {
+                return Status.BAD_REQUEST;
+            }
+            int length = 0;
+            for (int i = valueStart; i < valueEnd; i++) {
+                int digit = buf[i] - '0';
+                if (digit < 0 || digit > 9) return Status.BAD_REQUEST;
+                length = length * 10 + digit;
+            }
+            request.contentLength = length;
+            sawContentLength = true;
+        } else if (regionEqualsIgnoreCase(buf, from, colon, "Transfer-Encoding")) {
+            sawTransferEncoding = true;
+        }
+        return null;
+    }
+
+    private static boolean isWhitespace(byte b) {
+        return b == ' ' || b == '\t';
+    }
+
+    static int indexOf(byte[] buf, byte target, int from, int to) {
+        for (int i = from; i < to; i++) {
+            if (buf[i] == target) return i;
+        }
+        return -1;
+    }
+
+    static boolean regionEquals(byte[] buf, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (buf[from + i] != s.charAt(i)) return false;
+        }
+        return true;
+    }
+
+    static boolean regionEqualsIgnoreCase(byte[] buf, int from, int to, String s) {
+        if (to - from != s.length()) return false;
+        for (int i = 0; i < s.length(); i++) {
+            if (toLower(buf[from + i]) != toLower((byte) s.charAt(i))) return false;
+        }
+        return true;
+    }
+
+    private static int toLower(byte b) {
+        return b >= 'A' && b <= 'Z' ? b + ('a' - 'A') : b;
+    }
+}
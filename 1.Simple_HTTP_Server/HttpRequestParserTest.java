@@ -0,0 +1,65 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Framing checks for HttpRequestParser: bodies are delimited only by Content-Length, and any
+// request whose end could be read differently by another server is refused before its body
+// can be taken for the next pipelined request. Run with `java HttpRequestParserTest`; it exits
+// non-zero on the first failed check.
+public class HttpRequestParserTest {
+
+    public static void main(String[] args) {
+        pipelinedRequestsAreSplitByContentLength();
+        chunkedBodiesAreRefusedAndCloseTheConnection();
+        ambiguousFramingIsABadRequest();
+        System.out.println("All checks passed");
+    }
+
+    private static void pipelinedRequestsAreSplitByContentLength() {
+        HttpRequestParser parser = new HttpRequestParser(new SimpleServer.Request());
+        ByteBuffer buffer = buffer("POST /a HTTP/1.1\r\nContent-Length: 5\r\n\r\nhello"
+                + "GET /b HTTP/1.1\r\n\r\n");
+        check(parser.parse(buffer) == HttpRequestParser.Status.COMPLETE, "first request not parsed");
+        check(parser.request().getPath().equals("/a"), "first path was " + parser.request().getPath());
+        parser.next(buffer);
+        check(parser.parse(buffer) == HttpRequestParser.Status.COMPLETE, "second request not parsed");
+        check(parser.request().getPath().equals("/b"), "second path was " + parser.request().getPath());
+    }
+
+    private static void chunkedBodiesAreRefusedAndCloseTheConnection() {
+        String chunked = "POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\n\r\n"
+                + "20\r\nGET /smuggled HTTP/1.1\r\nX: \r\n0\r\n\r\n";
+        check(parse(chunked) == HttpRequestParser.Status.NOT_IMPLEMENTED, "chunked body accepted");
+        check(parse("POST /a HTTP/1.1\r\ntransfer-encoding: gzip, chunked\r\n\r\n")
+                == HttpRequestParser.Status.NOT_IMPLEMENTED, "header name matched case-sensitively");
+
+        HttpRequestParser parser = new HttpRequestParser(new SimpleServer.Request());
+        HttpRequestParser.Status status = parser.parse(buffer(chunked));
+        SimpleServer.Response response = SimpleServer.respond(parser, status, 1);
+        check(response.getStatusCode() == 501, "answered with " + response.getStatusCode());
+        check(!response.isKeepAlive(), "connection kept open after an unread body");
+    }
+
+    private static void ambiguousFramingIsABadRequest() {
+        check(parse("POST /a HTTP/1.1\r\nContent-Length: 3\r\nTransfer-Encoding: chunked\r\n\r\n")
+                == HttpRequestParser.Status.BAD_REQUEST, "Content-Length then Transfer-Encoding accepted");
+        check(parse("POST /a HTTP/1.1\r\nTransfer-Encoding: chunked\r\nContent-Length: 3\r\n\r\n")
+                == HttpRequestParser.Status.BAD_REQUEST, "Transfer-Encoding then Content-Length accepted");
+        check(parse("POST /a HTTP/1.1\r\nContent-Length: 3\r\nContent-Length: 3\r\n\r\nabc")
+                == HttpRequestParser.Status.BAD_REQUEST, "duplicate Content-Length accepted");
+    }
+
+    private static HttpRequestParser.Status parse(String request) {
+        return new HttpRequestParser(new SimpleServer.Request()).parse(buffer(request));
+    }
+
+    // In fill mode, as the servers hand it to the parser
+    private static ByteBuffer buffer(String request) {
+        ByteBuffer buffer = ByteBuffer.allocate(SimpleServer.REQUEST_BUFFER_SIZE);
+        buffer.put(request.getBytes(StandardCharsets.US_ASCII));
+        return buffer;
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,85 @@
+// Log-linear histogram in the style of HdrHistogram. Values below SUB_BUCKETS are counted
+// exactly; above that each power of two is split into SUB_BUCKETS / 2 linear slots, so any
+// recorded value is reported within 1/64 (~1.6%) of its true value while the whole range of a
+// long fits in a few thousand counters. Not thread-safe: give each recorder its own
+// histogram and add() them together afterwards.
+final class LatencyHistogram {
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int HALF = SUB_BUCKETS / 2;
+    private static final int MAX_SHIFT = 63 - (SUB_BUCKET_BITS - 1);
+
+    private final long[] counts = new long[SUB_BUCKETS + MAX_SHIFT * HALF];
+    private long totalCount;
+    private long min = Long.MAX_VALUE;
+    private long max;
+    private double sum;
+
+    void record(long value) {
+        if (value < 0) value = 0;
+        counts[indexOf(value)]++;
+        totalCount++;
+        sum += value;
+        if (value < min) min = value;
+        if (value > max) max = value;
+    }
+
+    void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] += other.counts[i];
+        }
+        totalCount += other.totalCount;
+        sum += other.sum;
+        min = Math.min(min, other.min);
+        max = Math.max(max, other.max);
+    }
+
+    long count() {
+        return totalCount;
+    }
+
+    long max() {
+        return max;
+    }
+
+    long min() {
+        return totalCount == 0 ? 0 : min;
+    }
+
+    double mean() {
+        return totalCount == 0 ? 0 : sum / totalCount;
+    }
+
+    // Smallest recorded value v such that `percentile` percent of values are <= v (bucket upper bound)
+    long percentile(double percentile) {
+        if (totalCount == 0) return 0;
+        long target = Math.max(1, (long) Math.ceil(percentile / 100.0 * totalCount));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= target) return Math.min(highestEquivalentValue(i), max);
+        }
+        return max;
+    }
+
+    static int indexOf(long value) {
+        if (value < SUB_BUCKETS) return (int) value;
+        int shift = (63 - Long.numberOfLeadingZeros(value)) - (SUB_BUCKET_BITS - 1);
+        int sub = (int) (value >>> shift); // in [HALF, SUB_BUCKETS)
+        return SUB_BUCKETS + (shift - 1) * HALF + (sub - HALF);
+    }
+
+    static long highestEquivalentValue(int index) {
+        if (index < SUB_BUCKETS) return index;
+        int shift = (index - SUB_BUCKETS) / HALF + 1;
+        long sub = (index - SUB_BUCKETS) % HALF + HALF;
+        return ((sub + 1) << shift) - 1;
+    }
+
+    // One-line summary with values converted from nanoseconds to microseconds
+    String summaryMicros() {
+        return String.format("count=%d mean=%.1fus p50=%.1fus p90=%.1fus p99=%.1fus p99.9=%.1fus max=%.1fus",
+                totalCount, mean() / 1e3, percentile(50) / 1e3, percentile(90) / 1e3,
+                percentile(99) / 1e3, percentile(99.9) / 1e3, max / 1e3);
+    }
+}
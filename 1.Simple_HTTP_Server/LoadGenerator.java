@@ -0,0 +1,206 @@
+import java.io.*;
+import java.net.*;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+
+// Load generator for SimpleServer over persistent connections.
+//
+//   java LoadGenerator --loop=open --rate=20000 --connections=16 --seconds=10 --path=/hello
+//   java LoadGenerator --loop=closed --connections=64 --server=nio
+//
+// Open loop sends at a constant aggregate rate: every request has an intended start time on
+// a fixed schedule and its latency is measured from that time, not from when it was actually
+// sent. A server stall therefore shows up in the percentiles for every request it delayed,
+// instead of silently pausing the generator (coordinated omission). Closed loop sends the next
+// request as soon as the previous one completes and reports plain service time.
+//
+// --server=<mode> starts SimpleServer in-process first; otherwise an already running server
+// on --host/--port is used. The first --warmup seconds are not recorded.
+public class LoadGenerator {
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        String loop = options.getOrDefault("loop", "open");
+        int connections = Integer.parseInt(options.getOrDefault("connections", "16"));
+        int rate = Integer.parseInt(options.getOrDefault("rate", "20000"));
+        int seconds = Integer.parseInt(options.getOrDefault("seconds", "10"));
+        int warmup = Integer.parseInt(options.getOrDefault("warmup", "2"));
+        String host = options.getOrDefault("host", "localhost");
+        int port = Integer.parseInt(options.getOrDefault("port", "8080"));
+        String path = options.getOrDefault("path", "/hello");
+
+        if (options.containsKey("server")) {
+            startEmbeddedServer(options.get("server"), host, port);
+        }
+
+        boolean openLoop = loop.equals("open");
+        long intervalNanos = openLoop ? (long) (1e9 * connections / rate) : 0;
+        long start = System.nanoTime() + 100_000_000L; // let every worker connect first
+        long recordFrom = start + warmup * 1_000_000_000L;
+        long end = recordFrom + seconds * 1_000_000_000L;
+
+        Worker[] workers = new Worker[connections];
+        Thread[] threads = new Thread[connections];
+        for (int i = 0; i < connections; i++) {
+            // Stagger the open-loop schedules so the connections don't fire in lockstep
+            long offset = openLoop ? intervalNanos * i / connections : 0;
+            workers[i] = new Worker(host, port, path, start + offset, intervalNanos, recordFrom, end);
+            threads[i] = new Thread(workers[i], "load-" + i);
+            threads[i].start();
+        }
+
+        LatencyHistogram total = new LatencyHistogram();
+        long errors = 0;
+        for (int i = 0; i < connections; i++) {
+            threads[i].join();
+            total.add(workers[i].histogram);
+            errors += workers[i].errors;
+        }
+
+        System.out.printf("%s loop, %d connections%s, %ds measured%n", loop, connections,
+                openLoop ? ", target " + rate + " req/s" : "", seconds);
+        System.out.printf("throughput: %.0f req/s, errors: %d%n", total.count() / (double) seconds, errors);
+        System.out.println((openLoop ? "response time: " : "service time: ") + total.summaryMicros());
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new HashMap<>();
+        for (String arg : args) {
+            if (!arg.startsWith("--") || arg.indexOf('=') < 0) {
+                throw new IllegalArgumentException("Expected --name=value, got " + arg);
+            }
+            options.put(arg.substring(2, arg.indexOf('=')), arg.substring(arg.indexOf('=') + 1));
+        }
+        return options;
+    }
+
+    private static void startEmbeddedServer(String mode, String host, int port) throws InterruptedException {
+        Thread server = new Thread(() -> SimpleServer.main(new String[] {mode}), "embedded-server");
+        server.setDaemon(true);
+        server.start();
+        for (int attempt = 0; attempt < 50; attempt++) {
+            try {
+                new Socket(host, port).close();
+                return;
+            } catch (IOException ex) {
+                Thread.sleep(100);
+            }
+        }
+        throw new IllegalStateException("Embedded server did not start on port " + port);
+    }
+
+    static final class Worker implements Runnable {
+        private final String host;
+        private final int port;
+        private final byte[] request;
+        private final long firstStart;
+        private final long intervalNanos; // 0 for closed loop
+        private final long recordFrom;
+        private final long end;
+        final LatencyHistogram histogram = new LatencyHistogram();
+        long errors;
+
+        private Socket socket;
+        private InputStream input;
+        private OutputStream output;
+
+        Worker(String host, int port, String path, long firstStart, long intervalNanos, long recordFrom, long end) {
+            this.host = host;
+            this.port = port;
+            this.request = ("GET " + path + " HTTP/1.1\r\nHost: " + host + "\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+            this.firstStart = firstStart;
+            this.intervalNanos = intervalNanos;
+            this.recordFrom = recordFrom;
+            this.end = end;
+        }
+
+        @Override
+        public void run() {
+            long intended = firstStart;
+            waitUntil(intended);
+            while (true) {
+                long now = System.nanoTime();
+                if (intervalNanos > 0) {
+                    if (intended >= end) break;
+                    waitUntil(intended);
+                } else {
+                    if (now >= end) break;
+                    intended = now;
+                }
+
+                try {
+                    if (socket == null) connect();
+                    output.write(request);
+                    output.flush();
+                    boolean keepAlive = readResponse();
+                    long done = System.nanoTime();
+                    if (intended >= recordFrom) histogram.record(done - intended);
+                    if (!keepAlive) disconnect();
+                } catch (IOException ex) {
+                    errors++;
+                    disconnect();
+                }
+                intended += intervalNanos;
+            }
+            disconnect();
+        }
+
+        private void connect() throws IOException {
+            socket = new Socket(host, port);
+            socket.setTcpNoDelay(true);
+            input = new BufferedInputStream(socket.getInputStream());
+            output = socket.getOutputStream();
+        }
+
+        private void disconnect() {
+            if (socket == null) return;
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                // Ignored; we reconnect on the next request
+            }
+            socket = null;
+        }
+
+        // Consumes one response; returns false if the server announced it will close
+        private boolean readResponse() throws IOException {
+            String statusLine = readLine();
+            if (!statusLine.startsWith("HTTP/1.1 ")) throw new IOException("Bad status line: " + statusLine);
+            long contentLength = 0;
+            boolean keepAlive = true;
+            String line;
+            while (!(line = readLine()).isEmpty()) {
+                int colon = line.indexOf(':');
+                String name = line.substring(0, colon);
+                String value = line.substring(colon + 1).trim();
+                if (name.equalsIgnoreCase("Content-Length")) contentLength = Long.parseLong(value);
+                if (name.equalsIgnoreCase("Connection") && value.equalsIgnoreCase("close")) keepAlive = false;
+            }
+            while (contentLength > 0) {
+                long skipped = input.skip(contentLength);
+                if (skipped <= 0) throw new EOFException("Truncated body");
+                contentLength -= skipped;
+            }
+            return keepAlive;
+        }
+
+        private String readLine() throws IOException {
+            StringBuilder line = new StringBuilder();
+            int c;
+            while ((c = input.read()) != '\n') {
+                if (c < 0) throw new EOFException("Connection closed");
+                if (c != '\r') line.append((char) c);
+            }
+            return line.toString();
+        }
+
+        private static void waitUntil(long deadline) {
+            long remaining;
+            while ((remaining = deadline - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(remaining);
+            }
+        }
+    }
+}
@@ -0,0 +1,230 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+// Non-blocking server: one acceptor hands connections to N selector-driven event loops.
+class NioServer {
+    private static final long IDLE_CHECK_MILLIS = 1000;
+
+    private final int port;
+    private final EventLoop[] loops;
+
+    NioServer(int port, int loopCount) throws IOException {
+        this.port = port;
+        this.loops = new EventLoop[loopCount];
+        for (int i = 0; i < loopCount; i++) {
+            loops[i] = new EventLoop();
+        }
+    }
+
+    void start() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            Thread thread = new Thread(loops[i], "event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
+            System.out.println("Server is listening on port " + port + " (nio, " + loops.length + " event loops)");
+
+            int next = 0;
+            while (true) {
+                // Accepting stays blocking; only the per-connection I/O is multiplexed.
+                SocketChannel client = serverChannel.accept();
+                client.configureBlocking(false);
+                client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+                loops[next].register(client);
+                next = (next + 1) % loops.length;
+            }
+        }
+    }
+
+    static final class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+
+        EventLoop() throws IOException {
+            this.selector = Selector.open();
+        }
+
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long nextIdleCheck = System.currentTimeMillis() + IDLE_CHECK_MILLIS;
+            while (true) {
+                try {
+                    selector.select(IDLE_CHECK_MILLIS);
+                    registerPending();
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        try {
+                            if (key.isValid() && key.isReadable()) connection.onReadable();
+                            if (key.isValid() && key.isWritable()) connection.onWritable();
+                        } catch (IOException ex) {
+                            connection.close();
+                        } catch (RuntimeException ex) {
+                            connection.fail(ex);
+                        }
+                    }
+
+                    long now = System.currentTimeMillis();
+                    if (now >= nextIdleCheck) {
+                        closeIdle(now);
+                        nextIdleCheck = now + IDLE_CHECK_MILLIS;
+                    }
+                } catch (IOException | RuntimeException ex) {
+                    System.out.println("Event loop exception: " + ex);
+                }
+            }
+        }
+
+        // Persistent connections that have been quiet longer than the idle timeout are closed.
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection != null && connection.isIdle(now)) {
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                    key.attach(new Connection(channel, key));
+                } catch (ClosedChannelException ex) {
+                    // Client went away before we got to it.
+                }
+            }
+        }
+    }
+
+    // Per-connection state, only ever touched by the owning event loop thread.
+    static final class Connection {
+        private final SocketChannel channel;
+        private final SelectionKey key;
+        private final ByteBuffer in = ByteBuffer.allocate(SimpleServer.REQUEST_BUFFER_SIZE);
+        private final HttpRequestParser parser = new HttpRequestParser(new SimpleServer.Request());
+        private ByteBuffer head = ByteBuffer.allocateDirect(SimpleServer.MAX_HEAD_SIZE); // grown for larger heads
+        private final ByteBuffer[] single = new ByteBuffer[1];
+        private final ByteBuffer[] pair = new ByteBuffer[2];
+        private ByteBuffer[] out;
+        private long outRemaining; // bytes of `out` not yet written; its last buffer may be empty
+        private StaticFileHandler.FileRegion file; // body still to send after `out`, if any
+        private int served;
+        private boolean keepAlive;
+        private long lastActive = System.currentTimeMillis();
+
+        Connection(SocketChannel channel, SelectionKey key) {
+            this.channel = channel;
+            this.key = key;
+        }
+
+        void onReadable() throws IOException {
+            int read = channel.read(in);
+            if (read < 0) {
+                close();
+                return;
+            }
+            lastActive = System.currentTimeMillis();
+            drain();
+        }
+
+        void onWritable() throws IOException {
+            drain();
+        }
+
+        boolean isIdle(long now) {
+            return out == null && now - lastActive > SimpleServer.IDLE_TIMEOUT_MILLIS;
+        }
+
+        // Alternates between flushing the current response and answering the next buffered
+        // request, so pipelined requests are served in arrival order without re-selecting.
+        private void drain() throws IOException {
+            while (true) {
+                if (out != null) {
+                    outRemaining -= channel.write(out);
+                    if (outRemaining > 0 || (file != null && !file.writeTo(channel))) {
+                        key.interestOps(SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    if (file != null) {
+                        file.close();
+                        file = null;
+                    }
+                    out = null;
+                    lastActive = System.currentTimeMillis();
+                    if (!keepAlive) {
+                        close();
+                        return;
+                    }
+                    parser.next(in);
+                }
+                if (!prepareResponse()) {
+                    key.interestOps(SelectionKey.OP_READ);
+                    return;
+                }
+            }
+        }
+
+        // Builds the response for the next complete buffered request; false if more bytes are needed.
+        private boolean prepareResponse() {
+            HttpRequestParser.Status status = parser.parse(in);
+            if (status == HttpRequestParser.Status.INCOMPLETE) return false;
+
+            SimpleServer.Response response = SimpleServer.respond(parser, status, ++served);
+            keepAlive = response.isKeepAlive();
+
+            head = SimpleServer.headBuffer(head, response);
+            out = SimpleServer.sendResponse(response, head, single, pair);
+            outRemaining = 0;
+            for (ByteBuffer buffer : out) {
+                outRemaining += buffer.remaining();
+            }
+            file = response.getFile();
+            return true;
+        }
+
+        // Something unexpected, such as a handler throwing, costs this connection only. If no
+        // response has started going out, the client is told with a 500 before it is closed.
+        void fail(RuntimeException cause) {
+            System.out.println("Connection failed: " + cause);
+            if (out == null) {
+                try {
+                    channel.write(SimpleServer.INTERNAL_SERVER_ERROR.buffer(false)); // small enough for one write
+                } catch (IOException ex) {
+                    // Closing anyway
+                }
+            }
+            close();
+        }
+
+        void close() {
+            if (file != null) {
+                file.close();
+                file = null;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
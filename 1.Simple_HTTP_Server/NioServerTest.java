@@ -0,0 +1,220 @@
+import java.io.*;
+import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.channels.spi.SelectorProvider;
+import java.nio.charset.StandardCharsets;
+import java.util.Set;
+
+// Drives NioServer.Connection through a channel that accepts only a few bytes per write, so
+// every response goes out in many partial writes, and checks that pipelined responses reach
+// the client whole and in order. Run with `java NioServerTest`; it exits non-zero on the first
+// failed check.
+public class NioServerTest {
+
+    public static void main(String[] args) throws IOException {
+        // An empty body, as in StaticFileHandler's 304 and 416 responses
+        SimpleServer.route("GET", "/empty", (request, response) -> {
+            response.setStatusCode(304);
+            response.setContent("");
+        });
+        emptyBodyResponsesSurviveShortWrites();
+        System.out.println("All checks passed");
+    }
+
+    private static void emptyBodyResponsesSurviveShortWrites() throws IOException {
+        String requests = "GET /empty HTTP/1.1\r\nHost: x\r\n\r\n"
+                + "GET /hello HTTP/1.1\r\nHost: x\r\n\r\n"
+                + "GET /empty HTTP/1.1\r\nHost: x\r\nConnection: close\r\n\r\n";
+        String expected = serve(requests, Integer.MAX_VALUE);
+        check(expected.startsWith("HTTP/1.1 304 ") && expected.contains("Hello, World!"), "unexpected responses:\n" + expected);
+        for (int bytesPerWrite = 1; bytesPerWrite <= 7; bytesPerWrite++) {
+            String trickled = serve(requests, bytesPerWrite);
+            check(trickled.equals(expected), bytesPerWrite + " bytes per write gave:\n" + trickled);
+        }
+    }
+
+    // Everything the connection writes back for `requests`, handing it writable events until
+    // it stops asking for them
+    private static String serve(String requests, int bytesPerWrite) throws IOException {
+        TricklingChannel channel = new TricklingChannel(requests.getBytes(StandardCharsets.US_ASCII), bytesPerWrite);
+        FakeKey key = new FakeKey(channel);
+        NioServer.Connection connection = new NioServer.Connection(channel, key);
+        connection.onReadable();
+        int writes = 0;
+        while (channel.isOpen() && key.interestOps == SelectionKey.OP_WRITE) {
+            check(++writes < 100_000, "connection never finished writing");
+            connection.onWritable();
+        }
+        check(!channel.isOpen(), "connection not closed after Connection: close");
+        return channel.written.toString(StandardCharsets.US_ASCII);
+    }
+
+    // Hands out the request bytes once, then reports nothing more to read; accepts at most
+    // `bytesPerWrite` bytes per write call
+    private static class TricklingChannel extends SocketChannel {
+        final ByteArrayOutputStream written = new ByteArrayOutputStream();
+        private final ByteBuffer input;
+        private final int bytesPerWrite;
+
+        TricklingChannel(byte[] input, int bytesPerWrite) {
+            super(SelectorProvider.provider());
+            this.input = ByteBuffer.wrap(input);
+            this.bytesPerWrite = bytesPerWrite;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) {
+            int n = Math.min(dst.remaining(), input.remaining());
+            dst.put(input.slice(input.position(), n));
+            input.position(input.position() + n);
+            return n;
+        }
+
+        @Override
+        public long read(ByteBuffer[] dsts, int offset, int length) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public int write(ByteBuffer src) {
+            return (int) write(new ByteBuffer[] {src}, 0, 1);
+        }
+
+        @Override
+        public long write(ByteBuffer[] srcs, int offset, int length) {
+            int budget = bytesPerWrite;
+            for (int i = offset; i < offset + length && budget > 0; i++) {
+                while (srcs[i].hasRemaining() && budget > 0) {
+                    written.write(srcs[i].get());
+                    budget--;
+                }
+            }
+            return bytesPerWrite - budget;
+        }
+
+        @Override
+        public SocketChannel bind(SocketAddress local) {
+            return this;
+        }
+
+        @Override
+        public <T> SocketChannel setOption(SocketOption<T> name, T value) {
+            return this;
+        }
+
+        @Override
+        public <T> T getOption(SocketOption<T> name) {
+            return null;
+        }
+
+        @Override
+        public Set<SocketOption<?>> supportedOptions() {
+            return Set.of();
+        }
+
+        @Override
+        public SocketChannel shutdownInput() {
+            return this;
+        }
+
+        @Override
+        public SocketChannel shutdownOutput() {
+            return this;
+        }
+
+        @Override
+        public Socket socket() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isConnected() {
+            return true;
+        }
+
+        @Override
+        public boolean isConnectionPending() {
+            return false;
+        }
+
+        @Override
+        public boolean connect(SocketAddress remote) {
+            return true;
+        }
+
+        @Override
+        public boolean finishConnect() {
+            return true;
+        }
+
+        @Override
+        public SocketAddress getRemoteAddress() {
+            return null;
+        }
+
+        @Override
+        public SocketAddress getLocalAddress() {
+            return null;
+        }
+
+        @Override
+        protected void implCloseSelectableChannel() {
+        }
+
+        @Override
+        protected void implConfigureBlocking(boolean block) {
+        }
+    }
+
+    // Remembers the interest set the connection asks for, which is all it uses its key for
+    private static class FakeKey extends SelectionKey {
+        private final SelectableChannel channel;
+        private boolean valid = true;
+        int interestOps = SelectionKey.OP_READ;
+
+        FakeKey(SelectableChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public SelectableChannel channel() {
+            return channel;
+        }
+
+        @Override
+        public Selector selector() {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean isValid() {
+            return valid;
+        }
+
+        @Override
+        public void cancel() {
+            valid = false;
+        }
+
+        @Override
+        public int interestOps() {
+            return interestOps;
+        }
+
+        @Override
+        public SelectionKey interestOps(int ops) {
+            interestOps = ops;
+            return this;
+        }
+
+        @Override
+        public int readyOps() {
+            return interestOps;
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
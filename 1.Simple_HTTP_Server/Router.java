@@ -0,0 +1,218 @@
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+// Radix tree router. Handlers are registered per method and path pattern, e.g.
+// "/users/{id}/posts". Static runs of the pattern become compressed byte edges that are
+// matched directly against the request's raw path bytes, so static lookups never allocate.
+// A {name} segment matches one path segment and a trailing {*name} matches the rest of the
+// path; their offsets are recorded on the request and only turned into a String when the
+// handler calls Request.getPathParam.
+//
+// Routes must be registered before the server starts; lookups are not synchronized.
+final class Router {
+    static final int MAX_PARAMS = 8;
+
+    interface Handler {
+        void handle(SimpleServer.Request request, SimpleServer.Response response);
+    }
+
+    enum Match { FOUND, NOT_FOUND, METHOD_NOT_ALLOWED }
+
+    private final Node root = new Node(new byte[0]);
+    private int size;
+
+    void register(String method, String pattern, Handler handler) {
+        if (pattern.isEmpty() || pattern.charAt(0) != '/') {
+            throw new IllegalArgumentException("Pattern must start with '/': " + pattern);
+        }
+        // Request paths arrive percent-encoded, so patterns are compared as ASCII
+        if (!StandardCharsets.US_ASCII.newEncoder().canEncode(pattern)) {
+            throw new IllegalArgumentException("Pattern must be ASCII: " + pattern);
+        }
+        Node node = insert(root, pattern, 0, 0);
+        node.addHandler(method, handler, pattern);
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    Match route(SimpleServer.Request request, SimpleServer.Response response) {
+        byte[] buf = request.buf;
+        int end = HttpRequestParser.indexOf(buf, (byte) '?', request.pathStart, request.pathEnd);
+        if (end < 0) end = request.pathEnd;
+
+        request.paramCount = 0;
+        Node node = find(root, buf, request.pathStart, end, request);
+        if (node == null) return Match.NOT_FOUND;
+
+        Handler handler = node.handlerFor(request);
+        if (handler == null) return Match.METHOD_NOT_ALLOWED;
+        handler.handle(request, response);
+        return Match.FOUND;
+    }
+
+    private Node insert(Node node, String pattern, int i, int params) {
+        if (i == pattern.length()) return node;
+
+        if (pattern.charAt(i) == '{') {
+            int close = pattern.indexOf('}', i);
+            if (close < 0) throw new IllegalArgumentException("Unclosed parameter in " + pattern);
+            if (pattern.charAt(i - 1) != '/' || (close + 1 < pattern.length() && pattern.charAt(close + 1) != '/')) {
+                throw new IllegalArgumentException("Parameters must span a whole segment: " + pattern);
+            }
+            if (params == MAX_PARAMS) throw new IllegalArgumentException("Too many parameters in " + pattern);
+
+            String name = pattern.substring(i + 1, close);
+            if (name.startsWith("*")) {
+                if (close + 1 != pattern.length()) {
+                    throw new IllegalArgumentException("Catch-all must end the pattern: " + pattern);
+                }
+                if (node.catchAll == null) {
+                    node.catchAll = new Node(new byte[0]);
+                    node.catchAllName = name.substring(1);
+                } else if (!node.catchAllName.equals(name.substring(1))) {
+                    throw new IllegalArgumentException("Conflicting catch-all {" + name + "} in " + pattern);
+                }
+                return node.catchAll;
+            }
+            if (node.param == null) {
+                node.param = new Node(new byte[0]);
+                node.paramName = name;
+            } else if (!node.paramName.equals(name)) {
+                throw new IllegalArgumentException("Conflicting parameter {" + name + "} vs {" + node.paramName + "} in " + pattern);
+            }
+            return insert(node.param, pattern, close + 1, params + 1);
+        }
+
+        int runEnd = pattern.indexOf('{', i);
+        byte[] run = pattern.substring(i, runEnd < 0 ? pattern.length() : runEnd).getBytes(StandardCharsets.US_ASCII);
+
+        Node child = node.child(run[0]);
+        if (child == null) {
+            child = new Node(run);
+            node.addChild(child);
+            return insert(child, pattern, i + run.length, params);
+        }
+
+        int common = commonPrefix(child.prefix, run);
+        if (common < child.prefix.length) {
+            child = node.split(child, common);
+        }
+        return insert(child, pattern, i + common, params);
+    }
+
+    // Static edges are preferred; a parameter edge is tried only if the static branch fails.
+    private Node find(Node node, byte[] buf, int pos, int end, SimpleServer.Request request) {
+        if (pos == end) return node.methods.length > 0 ? node : null;
+
+        Node child = node.child(buf[pos]);
+        if (child != null && startsWith(buf, pos, end, child.prefix)) {
+            Node found = find(child, buf, pos + child.prefix.length, end, request);
+            if (found != null) return found;
+        }
+
+        if (node.param != null) {
+            int segmentEnd = HttpRequestParser.indexOf(buf, (byte) '/', pos, end);
+            if (segmentEnd < 0) segmentEnd = end;
+            if (segmentEnd > pos) {
+                int mark = request.paramCount;
+                request.addPathParam(node.paramName, pos, segmentEnd);
+                Node found = find(node.param, buf, segmentEnd, end, request);
+                if (found != null) return found;
+                request.paramCount = mark;
+            }
+        }
+
+        if (node.catchAll != null && node.catchAll.methods.length > 0) {
+            request.addPathParam(node.catchAllName, pos, end);
+            return node.catchAll;
+        }
+        return null;
+    }
+
+    private static boolean startsWith(byte[] buf, int pos, int end, byte[] prefix) {
+        if (end - pos < prefix.length) return false;
+        for (int i = 0; i < prefix.length; i++) {
+            if (buf[pos + i] != prefix[i]) return false;
+        }
+        return true;
+    }
+
+    private static int commonPrefix(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        int i = 0;
+        while (i < n && a[i] == b[i]) i++;
+        return i;
+    }
+
+    private static final class Node {
+        private static final int INDEX_THRESHOLD = 8;
+
+        byte[] prefix;
+        Node[] children = new Node[0];
+        Node[] index; // direct lookup by first byte once fan-out gets wide
+        Node param;
+        String paramName;
+        Node catchAll;
+        String catchAllName;
+        String[] methods = new String[0];
+        Handler[] handlers = new Handler[0];
+
+        Node(byte[] prefix) {
+            this.prefix = prefix;
+        }
+
+        Node child(byte first) {
+            if (index != null) return index[first & 0xFF];
+            for (Node child : children) {
+                if (child.prefix[0] == first) return child;
+            }
+            return null;
+        }
+
+        void addChild(Node child) {
+            children = Arrays.copyOf(children, children.length + 1);
+            children[children.length - 1] = child;
+            if (index != null || children.length > INDEX_THRESHOLD) {
+                if (index == null) index = new Node[256];
+                for (Node c : children) {
+                    index[c.prefix[0] & 0xFF] = c;
+                }
+            }
+        }
+
+        // Cuts `child`'s edge after `at` bytes, inserting an intermediate node that takes its place.
+        Node split(Node child, int at) {
+            Node middle = new Node(Arrays.copyOf(child.prefix, at));
+            child.prefix = Arrays.copyOfRange(child.prefix, at, child.prefix.length);
+            middle.addChild(child);
+
+            for (int i = 0; i < children.length; i++) {
+                if (children[i] == child) children[i] = middle;
+            }
+            if (index != null) index[middle.prefix[0] & 0xFF] = middle;
+            return middle;
+        }
+
+        void addHandler(String method, Handler handler, String pattern) {
+            for (String existing : methods) {
+                if (existing.equals(method)) {
+                    throw new IllegalArgumentException("Duplicate route " + method + " " + pattern);
+                }
+            }
+            methods = Arrays.copyOf(methods, methods.length + 1);
+            methods[methods.length - 1] = method;
+            handlers = Arrays.copyOf(handlers, handlers.length + 1);
+            handlers[handlers.length - 1] = handler;
+        }
+
+        Handler handlerFor(SimpleServer.Request request) {
+            for (int i = 0; i < methods.length; i++) {
+                if (request.methodEquals(methods[i])) return handlers[i];
+            }
+            return null;
+        }
+    }
+}
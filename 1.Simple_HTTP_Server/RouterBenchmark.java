@@ -0,0 +1,96 @@
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+// Microbenchmark: router lookup cost as the route table grows, next to the linear
+// equals() chain it replaced. Run with `java RouterBenchmark`; the radix tree column should
+// stay roughly flat from 10 to 10k routes while the linear column grows with the table.
+public class RouterBenchmark {
+    private static final int[] ROUTE_COUNTS = {10, 100, 1_000, 10_000};
+    private static final int LOOKUPS = 2_000_000;
+
+    public static void main(String[] args) {
+        System.out.printf("%8s %14s %14s %14s%n", "routes", "static ns/op", "param ns/op", "linear ns/op");
+        for (int routes : ROUTE_COUNTS) {
+            Router router = new Router();
+            List<String> linear = new ArrayList<>();
+            Router.Handler noop = (request, response) -> { };
+            for (int i = 0; i < routes; i++) {
+                router.register("GET", "/api/v1/resource" + i + "/items", noop);
+                router.register("GET", "/api/v1/resource" + i + "/items/{id}", noop);
+                linear.add("/api/v1/resource" + i + "/items");
+            }
+
+            // Look up routes spread across the table so the numbers aren't one hot path
+            SimpleServer.Request[] statics = new SimpleServer.Request[16];
+            SimpleServer.Request[] params = new SimpleServer.Request[16];
+            for (int i = 0; i < statics.length; i++) {
+                int target = (int) ((long) routes * i / statics.length);
+                statics[i] = parse("GET /api/v1/resource" + target + "/items HTTP/1.1\r\n\r\n");
+                params[i] = parse("GET /api/v1/resource" + target + "/items/42 HTTP/1.1\r\n\r\n");
+            }
+
+            double staticNs = measure(router, statics);
+            double paramNs = measure(router, params);
+            double linearNs = measureLinear(linear, statics);
+            System.out.printf("%8d %14.1f %14.1f %14.1f%n", routes * 2, staticNs, paramNs, linearNs);
+        }
+    }
+
+    private static double measure(Router router, SimpleServer.Request[] requests) {
+        SimpleServer.Response response = new SimpleServer.Response();
+        int found = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+            for (int i = 0; i < LOOKUPS; i++) {
+                if (router.route(requests[i & (requests.length - 1)], response) == Router.Match.FOUND) found++;
+            }
+        }
+        long start = System.nanoTime();
+        for (int i = 0; i < LOOKUPS; i++) {
+            if (router.route(requests[i & (requests.length - 1)], response) == Router.Match.FOUND) found++;
+        }
+        long elapsed = System.nanoTime() - start;
+        if (found != 4 * LOOKUPS) throw new IllegalStateException("Lookups missed: " + found);
+        return (double) elapsed / LOOKUPS;
+    }
+
+    // Baseline: the old if/else chain, i.e. pathEquals against every route in turn
+    private static double measureLinear(List<String> routes, SimpleServer.Request[] requests) {
+        String[] table = routes.toArray(new String[0]);
+        int lookups = LOOKUPS / 20;
+        int found = 0;
+        for (int warmup = 0; warmup < 3; warmup++) {
+            found += linearLookups(table, requests, lookups);
+        }
+        long start = System.nanoTime();
+        found += linearLookups(table, requests, lookups);
+        long elapsed = System.nanoTime() - start;
+        if (found != 4 * lookups) throw new IllegalStateException("Lookups missed: " + found);
+        return (double) elapsed / lookups;
+    }
+
+    private static int linearLookups(String[] table, SimpleServer.Request[] requests, int lookups) {
+        int found = 0;
+        for (int i = 0; i < lookups; i++) {
+            SimpleServer.Request request = requests[i & (requests.length - 1)];
+            for (String path : table) {
+                if (request.pathEquals(path)) {
+                    found++;
+                    break;
+                }
+            }
+        }
+        return found;
+    }
+
+    static SimpleServer.Request parse(String raw) {
+        ByteBuffer buffer = ByteBuffer.allocate(SimpleServer.REQUEST_BUFFER_SIZE);
+        buffer.put(raw.getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser(new SimpleServer.Request());
+        if (parser.parse(buffer) != HttpRequestParser.Status.COMPLETE) {
+            throw new IllegalArgumentException("Not a complete request: " + raw);
+        }
+        return parser.request();
+    }
+}
@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+// Microbenchmarks for the per-request hot path: parseRequest, handleRequest and sendResponse,
+// measured in isolation from the network. Run with `java ServerMicroBenchmark` and compare
+// the ns/op columns between changes; each case reports the best and the mean of its rounds.
+public class ServerMicroBenchmark {
+    private static final int WARMUP_ROUNDS = 5;
+    private static final int ROUNDS = 10;
+    private static final int OPS_PER_ROUND = 1_000_000;
+
+    private static final String TYPICAL_REQUEST = "GET /hello HTTP/1.1\r\n"
+            + "Host: localhost:8080\r\n"
+            + "User-Agent: Mozilla/5.0 (X11; Linux x86_64) Gecko/20100101 Firefox/118.0\r\n"
+            + "Accept: text/html,application/xhtml+xml,application/xml;q=0.9,*/*;q=0.8\r\n"
+            + "Accept-Language: en-US,en;q=0.5\r\n"
+            + "Accept-Encoding: gzip, deflate, br\r\n"
+            + "Connection: keep-alive\r\n"
+            + "\r\n";
+
+    // Returned values are folded in here so the JIT cannot discard the measured work
+    private static long sink;
+
+    interface Operation {
+        long run() throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        byte[] raw = TYPICAL_REQUEST.getBytes(StandardCharsets.US_ASCII);
+        ByteBuffer buffer = ByteBuffer.allocate(SimpleServer.REQUEST_BUFFER_SIZE);
+        buffer.put(raw);
+        HttpRequestParser parser = new HttpRequestParser(new SimpleServer.Request());
+
+        System.out.printf("%-34s %10s %10s%n", "benchmark", "best ns", "mean ns");
+
+        // next() compacts zero remaining bytes but leaves the array intact, so resetting the
+        // position re-exposes the same request without copying it in again
+        run("parseRequest (7 headers)", () -> {
+            buffer.position(raw.length);
+            HttpRequestParser.Status status = parser.parse(buffer);
+            parser.next(buffer);
+            return status.ordinal();
+        });
+
+        SimpleServer.Request hello = parsed(TYPICAL_REQUEST);
+        SimpleServer.Request missing = parsed("GET /no/such/page HTTP/1.1\r\n\r\n");
+        run("handleRequest (/hello)", () -> {
+            SimpleServer.Response response = new SimpleServer.Response();
+            SimpleServer.handleRequest(hello, response);
+            return response.getStatusCode();
+        });
+        run("handleRequest (404)", () -> {
+            SimpleServer.Response response = new SimpleServer.Response();
+            SimpleServer.handleRequest(missing, response);
+            return response.getStatusCode();
+        });
+
+        SimpleServer.Response cached = new SimpleServer.Response();
+        SimpleServer.handleRequest(hello, cached);
+        cached.setKeepAlive(true);
+        ByteBuffer head = ByteBuffer.allocateDirect(SimpleServer.MAX_HEAD_SIZE);
+        ByteBuffer[] single = new ByteBuffer[1];
+        ByteBuffer[] pair = new ByteBuffer[2];
+        run("sendResponse (cached, channel)", () -> {
+            ByteBuffer[] out = SimpleServer.sendResponse(cached, head, single, pair);
+            return out[0].remaining();
+        });
+        run("sendResponse (dynamic, channel)", () -> {
+            SimpleServer.Response response = new SimpleServer.Response();
+            response.setStatusCode(200);
+            response.setContent("{\"id\": 42, \"name\": \"dynamic\"}");
+            response.setKeepAlive(true);
+            ByteBuffer[] out = SimpleServer.sendResponse(response, head, single, pair);
+            return out[0].remaining() + out[1].remaining();
+        });
+
+        CountingOutputStream counter = new CountingOutputStream();
+        run("sendResponse (dynamic, stream)", () -> {
+            SimpleServer.Response response = new SimpleServer.Response();
+            response.setStatusCode(200);
+            response.setContent("{\"id\": 42, \"name\": \"dynamic\"}");
+            response.setKeepAlive(true);
+            SimpleServer.sendResponse(response, counter);
+            return counter.count;
+        });
+
+        if (sink == 42) System.out.println(); // keep sink observable
+    }
+
+    private static void run(String name, Operation operation) throws Exception {
+        for (int round = 0; round < WARMUP_ROUNDS; round++) {
+            round(operation);
+        }
+        double best = Double.MAX_VALUE;
+        double total = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            double nsPerOp = round(operation);
+            best = Math.min(best, nsPerOp);
+            total += nsPerOp;
+        }
+        System.out.printf("%-34s %10.1f %10.1f%n", name, best, total / ROUNDS);
+    }
+
+    private static double round(Operation operation) throws Exception {
+        long start = System.nanoTime();
+        long acc = 0;
+        for (int i = 0; i < OPS_PER_ROUND; i++) {
+            acc += operation.run();
+        }
+        long elapsed = System.nanoTime() - start;
+        sink += acc;
+        return (double) elapsed / OPS_PER_ROUND;
+    }
+
+    private static SimpleServer.Request parsed(String raw) {
+        ByteBuffer buffer = ByteBuffer.allocate(SimpleServer.REQUEST_BUFFER_SIZE);
+        buffer.put(raw.getBytes(StandardCharsets.US_ASCII));
+        HttpRequestParser parser = new HttpRequestParser(new SimpleServer.Request());
+        if (parser.parse(buffer) != HttpRequestParser.Status.COMPLETE) {
+            throw new IllegalArgumentException("Not a complete request: " + raw);
+        }
+        return parser.request();
+    }
+
+    private static final class CountingOutputStream extends OutputStream {
+        long count;
+
+        @Override
+        public void write(int b) {
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            count += len;
+        }
+    }
+}
@@ -1,42 +1,156 @@
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
 
 public class SimpleServer {
+    static final int IDLE_TIMEOUT_MILLIS = 5000;
+    static final int MAX_REQUESTS_PER_CONNECTION = 100;
+    static final int REQUEST_BUFFER_SIZE = 16384; // header block plus any small request body
+    static final int MAX_HEAD_SIZE = 1024; // starting size of a connection's buffer for encoded status line and headers
+
+    // Concurrent connection caps for the blocking modes. Each connection also holds a
+    // REQUEST_BUFFER_SIZE read buffer, so the virtual cap bounds heap use as well as threads.
+    static final int MAX_PLATFORM_CONNECTIONS = 1000;
+    static final int MAX_VIRTUAL_CONNECTIONS = 100_000;
+
+    private static final CachedResponse WELCOME = CachedResponse.of(200, "Welcome to the Simple HTTP Server!");
+    private static final CachedResponse HELLO = CachedResponse.of(200, "Hello, World!");
+    private static final CachedResponse NOT_FOUND = CachedResponse.of(404, "Page not found");
+    private static final CachedResponse METHOD_NOT_ALLOWED = CachedResponse.of(405, "Method Not Allowed");
+    private static final CachedResponse SERVICE_UNAVAILABLE = CachedResponse.of(503, "Service Unavailable");
+    static final CachedResponse INTERNAL_SERVER_ERROR = CachedResponse.of(500, "Internal Server Error");
+
+    private static final Router ROUTER = new Router();
+
+    static {
+        route("GET", "/", (request, response) -> response.setCached(WELCOME));
+        route("GET", "/hello", (request, response) -> response.setCached(HELLO));
+    }
 
     public static void main(String[] args) {
         int port = 8080; // Server will listen on this port
+        String mode = args.length > 0 ? args[0] : "nio"; // "nio", "blocking" or "virtual"
+
+        // Serve ./static (or -Dstatic.root=...) under /static/ when present
+        Path staticRoot = Paths.get(System.getProperty("static.root", "static"));
+        if (Files.isDirectory(staticRoot)) {
+            route("GET", "/static/{*path}", new StaticFileHandler(staticRoot));
+        }
+
+        if (mode.equals("blocking")) {
+            int maxConnections = args.length > 1 ? Integer.parseInt(args[1]) : MAX_PLATFORM_CONNECTIONS;
+            runBlocking(port, Executors.newThreadPerTaskExecutor(Thread.ofPlatform().factory()), maxConnections);
+            return;
+        }
+        if (mode.equals("virtual")) {
+            int maxConnections = args.length > 1 ? Integer.parseInt(args[1]) : MAX_VIRTUAL_CONNECTIONS;
+            runBlocking(port, Executors.newVirtualThreadPerTaskExecutor(), maxConnections);
+            return;
+        }
+
+        try {
+            new NioServer(port, Runtime.getRuntime().availableProcessors()).start();
+        } catch (IOException ex) {
+            System.out.println("Server exception: " + ex.getMessage());
+            ex.printStackTrace();
+        }
+    }
+
+    // Blocking, one-connection-per-task server. With platform threads this is the original
+    // fallback mode; with virtual threads an idle connection costs a parked continuation
+    // rather than an OS thread. Either way at most maxConnections are served at once.
+    private static void runBlocking(int port, ExecutorService executor, int maxConnections) {
+        Semaphore permits = new Semaphore(maxConnections);
 
-        try (ServerSocket serverSocket = new ServerSocket(port)) {
+        // Sockets come from a channel so file bodies can be sent with transferTo
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            serverChannel.bind(new InetSocketAddress(port), 1024);
             System.out.println("Server is listening on port " + port);
 
             while (true) {
-                Socket socket = serverSocket.accept();
+                Socket socket = serverChannel.accept().socket();
                 System.out.println("New client connected");
 
-                // Handle the client's request in a separate thread
-                new Thread(() -> handleClient(socket)).start();
-                // TODO: move to ThreadPool
+                // Handle the client's request on the executor, never on the acceptor
+                dispatch(socket, executor, permits);
             }
         } catch (IOException ex) {
             System.out.println("Server exception: " + ex.getMessage());
             ex.printStackTrace();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // Over the cap the client gets an immediate 503 instead of queueing behind busy connections
+    private static void dispatch(Socket socket, ExecutorService executor, Semaphore permits) {
+        if (!permits.tryAcquire()) {
+            reject(socket);
+            return;
+        }
+        try {
+            executor.execute(() -> {
+                try {
+                    handleClient(socket);
+                } finally {
+                    permits.release();
+                }
+            });
+        } catch (RejectedExecutionException ex) {
+            permits.release();
+            reject(socket);
+        }
+    }
+
+    private static void reject(Socket socket) {
+        try (Socket rejected = socket) {
+            rejected.getOutputStream().write(SERVICE_UNAVAILABLE.bytes(false));
+        } catch (IOException ex) {
+            // Client is gone already; nothing to tell it
         }
     }
 
     private static void handleClient(Socket socket) {
         try (InputStream input = socket.getInputStream();
-             BufferedReader reader = new BufferedReader(new InputStreamReader(input));
              OutputStream output = socket.getOutputStream()) {
 
-            // Parse the HTTP request
-            Request request = parseRequest(reader);
+            // Reads block for at most the idle timeout between requests
+            socket.setSoTimeout(IDLE_TIMEOUT_MILLIS);
 
-            // Prepare the HTTP response
-            Response response = new Response();
-            handleRequest(request, response);
+            // One buffer and one parser per connection, reused for every request on it
+            ByteBuffer buffer = ByteBuffer.allocate(REQUEST_BUFFER_SIZE);
+            HttpRequestParser parser = new HttpRequestParser(new Request());
 
-            // Send the response
-            sendResponse(response, output);
+            // Serve requests until the client or the limits say otherwise. Pipelined requests
+            // are parsed back-to-back out of the same buffer, so responses go out in order.
+            int served = 0;
+            boolean keepAlive = true;
+            while (keepAlive) {
+                // Parse the HTTP request
+                HttpRequestParser.Status status;
+                try {
+                    status = parseRequest(parser, buffer, input);
+                } catch (EOFException | SocketTimeoutException ex) {
+                    break; // Client closed the connection or stayed idle too long
+                }
+
+                // Prepare the HTTP response
+                Response response = respond(parser, status, ++served);
+                keepAlive = response.isKeepAlive();
+
+                // Send the response
+                sendResponse(response, output);
+                if (response.getFile() != null) {
+                    sendFile(response.getFile(), socket, output);
+                }
+                parser.next(buffer);
+            }
 
         } catch (IOException ex) {
             System.out.println("Client handling exception: " + ex.getMessage());
@@ -50,27 +164,49 @@ public class SimpleServer {
         }
     }
 
-    private static Request parseRequest(BufferedReader reader) throws IOException {
-        // Read the first line of the request (e.g., "GET / HTTP/1.1")
-        String line = reader.readLine();
-        if (line == null || line.isEmpty()) return null;
+    // Reads from the stream until the parser has a full request (or has rejected it)
+    static HttpRequestParser.Status parseRequest(HttpRequestParser parser, ByteBuffer buffer, InputStream input) throws IOException {
+        HttpRequestParser.Status status;
+        while ((status = parser.parse(buffer)) == HttpRequestParser.Status.INCOMPLETE) {
+            int read = input.read(buffer.array(), buffer.position(), buffer.remaining());
+            if (read < 0) throw new EOFException("Connection closed");
+            buffer.position(buffer.position() + read);
+        }
+        return status;
+    }
 
-        String[] parts = line.split(" ");
-        String method = parts[0];
-        String path = parts[1];
-        String version = parts[2];
+    // Shared by both server modes: route a parsed request, or explain why it was rejected
+    static Response respond(HttpRequestParser parser, HttpRequestParser.Status status, int served) {
+        Response response = new Response();
+        Request request = status == HttpRequestParser.Status.COMPLETE ? parser.request() : null;
 
-        // Read headers (optional in this example)
-        String header;
-        StringBuilder headers = new StringBuilder();
-        while ((header = reader.readLine()) != null && !header.isEmpty()) {
-            headers.append(header).append("\n");
+        if (status == HttpRequestParser.Status.HEADERS_TOO_LARGE) {
+            response.setStatusCode(431);
+            response.setContent("Request Header Fields Too Large");
+        } else if (status == HttpRequestParser.Status.BODY_TOO_LARGE) {
+            response.setStatusCode(413);
+            response.setContent("Payload Too Large");
+        } else if (status == HttpRequestParser.Status.NOT_IMPLEMENTED) {
+            response.setStatusCode(501);
+            response.setContent("Not Implemented");
+        } else {
+            handleRequest(request, response);
         }
+        response.setKeepAlive(shouldKeepAlive(request, served));
+        return response;
+    }
+
+    // HTTP/1.1 connections persist unless the client asks to close; HTTP/1.0 only on request.
+    static boolean shouldKeepAlive(Request request, int served) {
+        if (request == null || served >= MAX_REQUESTS_PER_CONNECTION) return false;
 
-        return new Request(method, path, version, headers.toString());
+        if (request.isHttp10()) {
+            return request.headerEquals("Connection", "keep-alive");
+        }
+        return !request.headerEquals("Connection", "close");
     }
 
-    private static void handleRequest(Request request, Response response) {
+    static void handleRequest(Request request, Response response) {
         if (request == null) {
             response.setStatusCode(400);
             response.setContent("Bad Request");
@@ -78,63 +214,303 @@ public class SimpleServer {
         }
 
         // Handle different paths
-        if (request.getPath().equals("/")) {
-            response.setStatusCode(200);
-            response.setContent("Welcome to the Simple HTTP Server!");
-        } else if (request.getPath().equals("/hello")) {
-            response.setStatusCode(200);
-            response.setContent("Hello, World!");
+        Router.Match match = ROUTER.route(request, response);
+        if (match == Router.Match.NOT_FOUND) {
+            response.setCached(NOT_FOUND);
+        } else if (match == Router.Match.METHOD_NOT_ALLOWED) {
+            response.setCached(METHOD_NOT_ALLOWED);
+        }
+    }
+
+    // Registers a handler; must be called before the server starts accepting connections
+    static void route(String method, String pattern, Router.Handler handler) {
+        ROUTER.register(method, pattern, handler);
+    }
+
+    // Blocking path: the whole response goes out in a single write call. A file body is not
+    // written here; the caller follows up with sendFile.
+    static void sendResponse(Response response, OutputStream output) throws IOException {
+        CachedResponse cached = response.getCached();
+        if (cached != null) {
+            output.write(cached.bytes(response.isKeepAlive()));
         } else {
-            response.setStatusCode(404);
-            response.setContent("Page not found");
+            byte[] body = response.getFile() != null ? new byte[0] : response.getBody();
+            ByteBuffer message = ByteBuffer.allocate(headSize(response) + body.length);
+            encodeHead(response, message);
+            message.put(body);
+            output.write(message.array(), 0, message.position());
+        }
+        output.flush();
+    }
+
+    // Blocking transfer of a file body; zero-copy when the socket is backed by a channel
+    static void sendFile(StaticFileHandler.FileRegion file, Socket socket, OutputStream output) throws IOException {
+        WritableByteChannel target = socket.getChannel() != null ? socket.getChannel() : Channels.newChannel(output);
+        try {
+            while (!file.writeTo(target)) {
+                // A blocking channel only returns early on a short write; keep going
+            }
+        } finally {
+            file.close();
+        }
+    }
+
+    // Channel path: fills `out` with the buffers to hand to a single gathering write. Cached
+    // responses are a view of a shared direct buffer; dynamic ones are the head, encoded into
+    // the caller's reusable buffer (see headBuffer), followed by the body. File bodies are left
+    // to the caller.
+    static ByteBuffer[] sendResponse(Response response, ByteBuffer head, ByteBuffer[] single, ByteBuffer[] pair) {
+        CachedResponse cached = response.getCached();
+        if (cached != null) {
+            single[0] = cached.buffer(response.isKeepAlive());
+            return single;
+        }
+        head.clear();
+        encodeHead(response, head);
+        head.flip();
+        if (response.getFile() != null) {
+            single[0] = head;
+            return single;
         }
+        pair[0] = head;
+        pair[1] = ByteBuffer.wrap(response.getBody());
+        return pair;
     }
 
-    private static void sendResponse(Response response, OutputStream output) throws IOException {
-        PrintWriter writer = new PrintWriter(output, true);
-        writer.println("HTTP/1.1 " + response.getStatusCode() + " " + response.getStatusMessage());
-        writer.println("Content-Type: text/plain");
-        writer.println("Content-Length: " + response.getContent().length());
-        writer.println();
-        writer.println(response.getContent());
-        writer.flush();
+    // The caller's reusable head buffer if this response's head fits, otherwise a larger one for
+    // the caller to keep in its place
+    static ByteBuffer headBuffer(ByteBuffer head, Response response) {
+        int size = headSize(response);
+        return head.capacity() >= size ? head : ByteBuffer.allocateDirect(Integer.highestOneBit(size - 1) << 1);
     }
 
-    // Request object
+    // Upper bound on what encodeHead writes: its fixed text and longest numbers come to under
+    // 128 bytes, and each header adds its name and value plus ": " and "\r\n"
+    static int headSize(Response response) {
+        int size = 128 + response.getStatusMessage().length() + response.getContentType().length();
+        List<String> headers = response.getHeaders();
+        for (int i = 0; i < headers.size(); i++) {
+            size += headers.get(i).length() + 2;
+        }
+        return size;
+    }
+
+    // Status line and headers as ASCII; Content-Length is the UTF-8 byte length of the body
+    static void encodeHead(Response response, ByteBuffer dst) {
+        putAscii(dst, "HTTP/1.1 ");
+        putLong(dst, response.getStatusCode());
+        dst.put((byte) ' ');
+        putAscii(dst, response.getStatusMessage());
+        putAscii(dst, "\r\nContent-Type: ");
+        putAscii(dst, response.getContentType());
+        if (response.getStatusCode() != 304) {
+            // A 304 must not claim a length other than the full representation's, so it has none
+            putAscii(dst, "\r\nContent-Length: ");
+            putLong(dst, response.getContentLength());
+        }
+        List<String> headers = response.getHeaders();
+        for (int i = 0; i < headers.size(); i += 2) {
+            putAscii(dst, "\r\n");
+            putAscii(dst, headers.get(i));
+            putAscii(dst, ": ");
+            putAscii(dst, headers.get(i + 1));
+        }
+        putAscii(dst, response.isKeepAlive() ? "\r\nConnection: keep-alive\r\n\r\n" : "\r\nConnection: close\r\n\r\n");
+    }
+
+    private static void putAscii(ByteBuffer dst, String s) {
+        for (int i = 0; i < s.length(); i++) {
+            dst.put((byte) s.charAt(i));
+        }
+    }
+
+    private static void putLong(ByteBuffer dst, long value) {
+        if (value >= 10) putLong(dst, value / 10);
+        dst.put((byte) ('0' + value % 10));
+    }
+
+    // Fully encoded response for content that never changes, built once at class load. Both
+    // Connection variants are kept so keep-alive never forces a re-encode.
+    static final class CachedResponse {
+        private final int statusCode;
+        private final String content;
+        private final byte[] keepAliveBytes;
+        private final byte[] closeBytes;
+        private final ByteBuffer keepAliveBuffer;
+        private final ByteBuffer closeBuffer;
+
+        private CachedResponse(int statusCode, String content) {
+            this.statusCode = statusCode;
+            this.content = content;
+            this.keepAliveBytes = encode(true);
+            this.closeBytes = encode(false);
+            this.keepAliveBuffer = direct(keepAliveBytes);
+            this.closeBuffer = direct(closeBytes);
+        }
+
+        static CachedResponse of(int statusCode, String content) {
+            return new CachedResponse(statusCode, content);
+        }
+
+        byte[] bytes(boolean keepAlive) {
+            return keepAlive ? keepAliveBytes : closeBytes;
+        }
+
+        // Each writer gets its own position/limit over the shared, read-only contents
+        ByteBuffer buffer(boolean keepAlive) {
+            return (keepAlive ? keepAliveBuffer : closeBuffer).duplicate();
+        }
+
+        private byte[] encode(boolean keepAlive) {
+            Response response = new Response();
+            response.setStatusCode(statusCode);
+            response.setContent(content);
+            response.setKeepAlive(keepAlive);
+            ByteArrayOutputStream encoded = new ByteArrayOutputStream();
+            try {
+                sendResponse(response, encoded);
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            return encoded.toByteArray();
+        }
+
+        private static ByteBuffer direct(byte[] bytes) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(bytes.length);
+            buffer.put(bytes).flip();
+            return buffer.asReadOnlyBuffer();
+        }
+    }
+
+    // Request object: a view over the connection's read buffer, filled in by HttpRequestParser.
+    // Strings are only materialized when a getter is called, and cached until the next request.
     static class Request {
-        private final String method;
-        private final String path;
-        private final String version;
-        private final String headers;
+        byte[] buf;
+        int methodStart, methodEnd;
+        int pathStart, pathEnd;
+        int versionStart, versionEnd;
+        int headerCount;
+        final int[] headerOffsets = new int[HttpRequestParser.MAX_HEADERS * 4]; // name start/end, value start/end
+        int bodyStart;
+        int contentLength;
+        int paramCount;
+        final int[] paramOffsets = new int[Router.MAX_PARAMS * 2];
+        final String[] paramNames = new String[Router.MAX_PARAMS];
 
-        public Request(String method, String path, String version, String headers) {
-            this.method = method;
-            this.path = path;
-            this.version = version;
-            this.headers = headers;
+        private String method;
+        private String path;
+        private String version;
+        private String headers;
+
+        void clear() {
+            headerCount = 0;
+            paramCount = 0;
+            contentLength = 0;
+            method = null;
+            path = null;
+            version = null;
+            headers = null;
         }
 
         public String getMethod() {
+            if (method == null) method = string(methodStart, methodEnd);
             return method;
         }
 
         public String getPath() {
+            if (path == null) path = string(pathStart, pathEnd);
             return path;
         }
 
         public String getVersion() {
+            if (version == null) version = string(versionStart, versionEnd);
             return version;
         }
 
         public String getHeaders() {
+            if (headers == null) {
+                StringBuilder builder = new StringBuilder();
+                for (int i = 0; i < headerCount; i++) {
+                    int slot = i * 4;
+                    builder.append(string(headerOffsets[slot], headerOffsets[slot + 1])).append(": ")
+                            .append(string(headerOffsets[slot + 2], headerOffsets[slot + 3])).append("\n");
+                }
+                headers = builder.toString();
+            }
             return headers;
         }
+
+        // Case-insensitive lookup of a single header value, or null if absent
+        public String getHeader(String name) {
+            int slot = findHeader(name);
+            return slot < 0 ? null : string(headerOffsets[slot + 2], headerOffsets[slot + 3]);
+        }
+
+        public int getContentLength() {
+            return contentLength;
+        }
+
+        // Value captured by a {name} segment of the matched route, or null
+        public String getPathParam(String name) {
+            for (int i = 0; i < paramCount; i++) {
+                if (paramNames[i].equals(name)) {
+                    return string(paramOffsets[i * 2], paramOffsets[i * 2 + 1]);
+                }
+            }
+            return null;
+        }
+
+        void addPathParam(String name, int from, int to) {
+            paramNames[paramCount] = name;
+            paramOffsets[paramCount * 2] = from;
+            paramOffsets[paramCount * 2 + 1] = to;
+            paramCount++;
+        }
+
+        // The methods below compare against the raw bytes and never allocate
+
+        public boolean methodEquals(String s) {
+            return HttpRequestParser.regionEquals(buf, methodStart, methodEnd, s);
+        }
+
+        public boolean pathEquals(String s) {
+            return HttpRequestParser.regionEquals(buf, pathStart, pathEnd, s);
+        }
+
+        public boolean isHttp10() {
+            return HttpRequestParser.regionEquals(buf, versionStart, versionEnd, "HTTP/1.0");
+        }
+
+        public boolean headerEquals(String name, String value) {
+            int slot = findHeader(name);
+            return slot >= 0 && HttpRequestParser.regionEqualsIgnoreCase(buf, headerOffsets[slot + 2], headerOffsets[slot + 3], value);
+        }
+
+        private int findHeader(String name) {
+            for (int i = 0; i < headerCount; i++) {
+                int slot = i * 4;
+                if (HttpRequestParser.regionEqualsIgnoreCase(buf, headerOffsets[slot], headerOffsets[slot + 1], name)) {
+                    return slot;
+                }
+            }
+            return -1;
+        }
+
+        private String string(int from, int to) {
+            return new String(buf, from, to - from, StandardCharsets.ISO_8859_1);
+        }
     }
 
     // Response object
     static class Response {
         private int statusCode;
         private String content;
+        private String contentType = "text/plain; charset=utf-8";
+        private byte[] body;
+        private StaticFileHandler.FileRegion file;
+        private final List<String> headers = new ArrayList<>(); // name, value, name, value, ...
+        private CachedResponse cached;
+        private boolean keepAlive;
 
         public int getStatusCode() {
             return statusCode;
@@ -142,6 +518,7 @@ public class SimpleServer {
 
         public void setStatusCode(int statusCode) {
             this.statusCode = statusCode;
+            this.cached = null;
         }
 
         public String getStatusMessage() {
@@ -150,12 +527,36 @@ public class SimpleServer {
                 case 200 : 
                     responseCode = "OK";
                     break;
+                case 206:
+                    responseCode = "Partial Content";
+                    break;
+                case 304:
+                    responseCode = "Not Modified";
+                    break;
                 case 400: 
                     responseCode = "Bad Request";
                     break;
                 case 404: 
                     responseCode = "Not Found";
                     break;
+                case 405:
+                    responseCode = "Method Not Allowed";
+                    break;
+                case 413:
+                    responseCode = "Payload Too Large";
+                    break;
+                case 416:
+                    responseCode = "Range Not Satisfiable";
+                    break;
+                case 431:
+                    responseCode = "Request Header Fields Too Large";
+                    break;
+                case 501:
+                    responseCode = "Not Implemented";
+                    break;
+                case 503:
+                    responseCode = "Service Unavailable";
+                    break;
                 default:
                     responseCode = "Internal Server Error";
                     break;
@@ -169,6 +570,66 @@ public class SimpleServer {
 
         public void setContent(String content) {
             this.content = content;
+            this.body = null;
+            this.cached = null;
+        }
+
+        public String getContentType() {
+            return contentType;
+        }
+
+        public void setContentType(String contentType) {
+            this.contentType = contentType;
+            this.cached = null;
+        }
+
+        // UTF-8 encoded content, computed once
+        public byte[] getBody() {
+            if (body == null) body = content.getBytes(StandardCharsets.UTF_8);
+            return body;
+        }
+
+        public long getContentLength() {
+            return file != null ? file.length() : getBody().length;
+        }
+
+        public StaticFileHandler.FileRegion getFile() {
+            return file;
+        }
+
+        // Body streamed from a file instead of content; Content-Length comes from the region
+        public void setFile(StaticFileHandler.FileRegion file) {
+            this.file = file;
+            this.cached = null;
+        }
+
+        public List<String> getHeaders() {
+            return headers;
+        }
+
+        public void addHeader(String name, String value) {
+            headers.add(name);
+            headers.add(value);
+            this.cached = null;
+        }
+
+        public CachedResponse getCached() {
+            return cached;
+        }
+
+        public void setCached(CachedResponse cached) {
+            this.statusCode = cached.statusCode;
+            this.content = cached.content;
+            this.body = null;
+            this.cached = cached;
+        }
+
+        public boolean isKeepAlive() {
+            return keepAlive;
+        }
+
+        public void setKeepAlive(boolean keepAlive) {
+            this.keepAlive = keepAlive;
         }
     }
 }
\ No newline at end of file
@@ -0,0 +1,272 @@
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.ConcurrentHashMap;
+
+// Serves files under a root directory without copying them through the heap. Large files
+// are sent with FileChannel.transferTo (sendfile on Linux); small files are memory-mapped
+// once and the mapping reused while the file is unchanged. Supports a single byte Range,
+// and ETag/If-None-Match plus Last-Modified/If-Modified-Since revalidation with 304s.
+final class StaticFileHandler implements Router.Handler {
+    private static final long MAPPED_FILE_LIMIT = 64 * 1024;
+    private static final int MAPPED_CACHE_ENTRIES = 256;
+
+    private final Path root;
+    private final ConcurrentHashMap<Path, MappedFile> mapped = new ConcurrentHashMap<>();
+
+    StaticFileHandler(Path root) {
+        this.root = root.toAbsolutePath().normalize();
+    }
+
+    @Override
+    public void handle(SimpleServer.Request request, SimpleServer.Response response) {
+        Path file = resolve(request.getPathParam("path"));
+        if (file == null) {
+            notFound(response);
+            return;
+        }
+
+        try {
+            BasicFileAttributes attributes = Files.readAttributes(file, BasicFileAttributes.class);
+            if (!attributes.isRegularFile()) {
+                notFound(response);
+                return;
+            }
+            long size = attributes.size();
+            long modified = attributes.lastModifiedTime().toMillis() / 1000 * 1000; // HTTP dates have second precision
+            String etag = "\"" + Long.toHexString(size) + "-" + Long.toHexString(modified) + "\"";
+
+            response.setContentType(contentType(file));
+            response.addHeader("ETag", etag);
+            response.addHeader("Last-Modified", DateTimeFormatter.RFC_1123_DATE_TIME.format(
+                    ZonedDateTime.ofInstant(Instant.ofEpochMilli(modified), ZoneOffset.UTC)));
+            response.addHeader("Accept-Ranges", "bytes");
+
+            if (notModified(request, etag, modified)) {
+                response.setStatusCode(304);
+                response.setContent("");
+                return;
+            }
+
+            long start = 0;
+            long length = size;
+            String range = request.getHeader("Range");
+            if (range != null) {
+                long[] bounds = parseRange(range, size);
+                if (bounds == null) {
+                    response.setStatusCode(416);
+                    response.addHeader("Content-Range", "bytes */" + size);
+                    response.setContent("");
+                    return;
+                }
+                start = bounds[0];
+                length = bounds[1] - bounds[0] + 1;
+                response.setStatusCode(206);
+                response.addHeader("Content-Range", "bytes " + bounds[0] + "-" + bounds[1] + "/" + size);
+            } else {
+                response.setStatusCode(200);
+            }
+            response.setFile(open(file, size, modified, start, length));
+        } catch (NoSuchFileException ex) {
+            notFound(response);
+        } catch (IOException ex) {
+            response.setStatusCode(500);
+            response.setContent("Internal Server Error");
+        }
+    }
+
+    // Decodes the captured path and refuses anything that would escape the root
+    private Path resolve(String relative) {
+        try {
+            String decoded = URLDecoder.decode(relative.replace("+", "%2B"), StandardCharsets.UTF_8);
+            Path file = root.resolve(decoded).normalize();
+            return file.startsWith(root) ? file : null;
+        } catch (IllegalArgumentException ex) { // Bad escapes or an InvalidPathException
+            return null;
+        }
+    }
+
+    // If-None-Match wins over If-Modified-Since when both are present (RFC 9110 section 13.2.2)
+    private static boolean notModified(SimpleServer.Request request, String etag, long modified) {
+        String ifNoneMatch = request.getHeader("If-None-Match");
+        if (ifNoneMatch != null) {
+            if (ifNoneMatch.equals("*")) return true;
+            for (String candidate : ifNoneMatch.split(",")) {
+                String tag = candidate.trim();
+                if (tag.startsWith("W/")) tag = tag.substring(2);
+                if (tag.equals(etag)) return true;
+            }
+            return false;
+        }
+
+        String ifModifiedSince = request.getHeader("If-Modified-Since");
+        if (ifModifiedSince != null) {
+            try {
+                long since = ZonedDateTime.parse(ifModifiedSince, DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+                return modified <= since;
+            } catch (RuntimeException ex) {
+                return false; // Unparseable dates are ignored
+            }
+        }
+        return false;
+    }
+
+    // Single "bytes=" range as inclusive {first, last}, or null when unsatisfiable/unsupported
+    static long[] parseRange(String header, long size) {
+        if (!header.startsWith("bytes=") || header.indexOf(',') >= 0) return null;
+        String spec = header.substring(6).trim();
+        int dash = spec.indexOf('-');
+        if (dash < 0) return null;
+
+        try {
+            long first;
+            long last;
+            if (dash == 0) {
+                long suffix = Long.parseLong(spec.substring(1));
+                if (suffix <= 0) return null;
+                first = Math.max(0, size - suffix);
+                last = size - 1;
+            } else {
+                first = Long.parseLong(spec.substring(0, dash));
+                last = dash == spec.length() - 1 ? size - 1 : Math.min(Long.parseLong(spec.substring(dash + 1)), size - 1);
+            }
+            return first < 0 || first > last || first >= size ? null : new long[] {first, last};
+        } catch (NumberFormatException ex) {
+            return null;
+        }
+    }
+
+    private FileRegion open(Path file, long size, long modified, long start, long length) throws IOException {
+        if (size <= MAPPED_FILE_LIMIT) {
+            MappedFile cached = mapped.get(file);
+            if (cached == null || cached.size != size || cached.modified != modified) {
+                cached = map(file, size, modified);
+                if (cached != null && (mapped.size() < MAPPED_CACHE_ENTRIES || mapped.containsKey(file))) {
+                    mapped.put(file, cached);
+                }
+            }
+            if (cached != null) {
+                ByteBuffer slice = cached.buffer.duplicate();
+                slice.position((int) start).limit((int) (start + length));
+                return new FileRegion(slice);
+            }
+        }
+        return new FileRegion(FileChannel.open(file, StandardOpenOption.READ), start, length);
+    }
+
+    private static MappedFile map(Path file, long size, long modified) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            if (channel.size() != size) return null; // Changed under us; send it unmapped this time
+            return new MappedFile(channel.map(FileChannel.MapMode.READ_ONLY, 0, size), size, modified);
+        }
+    }
+
+    private static void notFound(SimpleServer.Response response) {
+        response.setStatusCode(404);
+        response.setContent("Page not found");
+    }
+
+    private static String contentType(Path file) {
+        String name = file.getFileName().toString();
+        String extension = name.substring(name.lastIndexOf('.') + 1).toLowerCase();
+        switch (extension) {
+            case "html":
+            case "htm":
+                return "text/html; charset=utf-8";
+            case "css":
+                return "text/css; charset=utf-8";
+            case "js":
+                return "text/javascript; charset=utf-8";
+            case "json":
+                return "application/json";
+            case "txt":
+                return "text/plain; charset=utf-8";
+            case "svg":
+                return "image/svg+xml";
+            case "png":
+                return "image/png";
+            case "jpg":
+            case "jpeg":
+                return "image/jpeg";
+            case "gif":
+                return "image/gif";
+            default:
+                return "application/octet-stream";
+        }
+    }
+
+    private static final class MappedFile {
+        final MappedByteBuffer buffer;
+        final long size;
+        final long modified;
+
+        MappedFile(MappedByteBuffer buffer, long size, long modified) {
+            this.buffer = buffer;
+            this.size = size;
+            this.modified = modified;
+        }
+    }
+
+    // Response body backed by a file: a slice of a shared mapping, or a range of an open
+    // channel that is pushed with transferTo and closed once sent.
+    static final class FileRegion {
+        private final ByteBuffer mapped;
+        private final FileChannel channel;
+        private final long length;
+        private long position;
+        private final long end;
+
+        FileRegion(ByteBuffer mapped) {
+            this.mapped = mapped;
+            this.channel = null;
+            this.length = mapped.remaining();
+            this.end = 0;
+        }
+
+        FileRegion(FileChannel channel, long position, long length) {
+            this.mapped = null;
+            this.channel = channel;
+            this.length = length;
+            this.position = position;
+            this.end = position + length;
+        }
+
+        long length() {
+            return length;
+        }
+
+        // Writes as much as the target accepts; true once the whole region has been sent
+        boolean writeTo(WritableByteChannel target) throws IOException {
+            if (mapped != null) {
+                target.write(mapped);
+                return !mapped.hasRemaining();
+            }
+            long sent = channel.transferTo(position, end - position, target);
+            if (sent == 0 && position >= channel.size()) {
+                throw new EOFException("File truncated while sending");
+            }
+            position += sent;
+            return position == end;
+        }
+
+        void close() {
+            if (channel == null) return;
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        }
+    }
+}
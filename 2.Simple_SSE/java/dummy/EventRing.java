@@ -0,0 +1,68 @@
+package dummy;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+// Fixed-size ring of a topic's most recent encoded events, kept so a reconnecting client can
+// be sent what it missed.
+//
+// Event ids are claimed from a counter, so they are dense and increasing, and event n lives
+// in slot n & mask until it is overwritten by event n + capacity. Every slot holds an
+// immutable Event carrying its own id. A reader looking for id n reads the slot once and
+// checks the id it finds. If the id is n, it has the event. If it is lower, event n has been
+// claimed but not stored yet. If it is higher, event n has already been overwritten. Neither
+// side takes a lock, and a reader can never see a half-written event. With a single publisher
+// (the usual case) appends are never contended; concurrent publishers also work, they only
+// contend on the counter.
+//
+// Memory is bounded by capacity slots per topic, each holding one encoded event.
+final class EventRing {
+    static final class Event {
+        final long id;
+        final byte[] bytes; // wire form, id line included
+
+        Event(long id, byte[] bytes) {
+            this.id = id;
+            this.bytes = bytes;
+        }
+    }
+
+    private final AtomicReferenceArray<Event> slots;
+    private final int mask;
+    private final AtomicLong lastId = new AtomicLong(); // highest id claimed; ids start at 1
+
+    EventRing(int capacity) {
+        if (capacity < 1) throw new IllegalArgumentException("Replay capacity must be positive: " + capacity);
+        int size = 1;
+        while (size < capacity) size <<= 1; // power of two, so a slot is id & mask
+        this.slots = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    int capacity() {
+        return slots.length();
+    }
+
+    long lastId() {
+        return lastId.get();
+    }
+
+    Event append(String data) {
+        long id = lastId.incrementAndGet();
+        Event event = new Event(id, SseHub.encode(id, data));
+        slots.set((int) (id & mask), event);
+        return event;
+    }
+
+    // Adds the retained events with afterId < id <= upToId to out, oldest first. Events that
+    // were already overwritten are skipped; the scan stops at one that is claimed but not stored.
+    void replay(long afterId, long upToId, ArrayDeque<Event> out) {
+        long from = Math.max(afterId + 1, upToId - slots.length() + 1);
+        for (long id = from; id <= upToId; id++) {
+            Event event = slots.get((int) (id & mask));
+            if (event == null || event.id < id) return;
+            if (event.id == id) out.add(event);
+        }
+    }
+}
@@ -1,8 +1,26 @@
 package dummy;
 
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
 public class Main{
     public static void main(String argsString[]){
-        Server server = new Server();
+        Server.ExecutorMode mode = argsString.length > 0
+                ? Server.ExecutorMode.valueOf(argsString[0].toUpperCase())
+                : Server.ExecutorMode.PLATFORM;
+        Server server = new Server(mode, new SseHub());
+
+        // Demo producer: publishes once a second to the default topic, whoever is listening
+        String messages[] = new String[]{"this", "is", "data"};
+        ScheduledExecutorService producer = Executors.newSingleThreadScheduledExecutor();
+        long[] sequence = {0};
+        producer.scheduleAtFixedRate(() -> {
+            String msg = messages[(int) (sequence[0]++ % messages.length)];
+            server.getHub().publish(Server.DEFAULT_TOPIC, msg);
+        }, 1, 1, TimeUnit.SECONDS);
+
         server.init();
+        producer.shutdownNow();
     }
 }
\ No newline at end of file
@@ -2,37 +2,117 @@ package dummy;
 
 import java.io.*;
 import java.net.*;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.StandardCharsets;
 import java.util.concurrent.*;
 
 public class Server {
     private static final int QUEUE_SIZE = 10000;
-    private static final int CONNECTION_TIMEOUT = 30000; // 30 seconds
-    
+    private static final int CONNECTION_TIMEOUT = 30000; // 30 seconds, for handshakes and stalled writes
+    private static final int MAX_CONNECTIONS = 100_000;
+    private static final byte[] STREAM_HEADERS = ("HTTP/1.1 200 OK\r\nContent-Type: text/event-stream\r\n"
+            + "Cache-Control: no-cache\r\nConnection: keep-alive\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] NOT_FOUND = ("HTTP/1.1 404 Not Found\r\n"
+            + "Content-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] SERVICE_UNAVAILABLE = ("HTTP/1.1 503 Service Unavailable\r\n"
+            + "Retry-After: 1\r\nContent-Length: 0\r\nConnection: close\r\n\r\n").getBytes(StandardCharsets.US_ASCII);
+
+    // PLATFORM: bounded pool of OS threads; VIRTUAL: one virtual thread per connection
+    public enum ExecutorMode { PLATFORM, VIRTUAL }
+
+    public static final String DEFAULT_TOPIC = "default";
+
+    private final ExecutorMode mode;
+    private final Semaphore connectionPermits;
+    private final SseHub hub;
+    private SseDispatcher dispatcher;
+
+    public Server() {
+        this(ExecutorMode.PLATFORM, new SseHub());
+    }
+
+    public Server(ExecutorMode mode, SseHub hub) {
+        this(mode, MAX_CONNECTIONS, hub);
+    }
+
+    public Server(ExecutorMode mode, int maxConnections, SseHub hub) {
+        this.mode = mode;
+        this.connectionPermits = new Semaphore(maxConnections);
+        this.hub = hub;
+        hub.createTopic(DEFAULT_TOPIC);
+    }
+
+    public SseHub getHub() {
+        return hub;
+    }
+
     public void init() {
+        ExecutorService executor = createExecutor();
+
+        // Sockets come from a channel so they can be switched to non-blocking after the handshake
+        try (ServerSocketChannel serverChannel = ServerSocketChannel.open()) {
+            dispatcher = new SseDispatcher(CONNECTION_TIMEOUT);
+            Thread dispatcherThread = new Thread(dispatcher, "sse-dispatcher");
+            dispatcherThread.setDaemon(true);
+            dispatcherThread.start();
+
+            serverChannel.bind(new InetSocketAddress(8080), 1024);
+            System.out.println("Server started on port 8080 (" + mode + " threads)");
+            while(true) {
+                Socket socket = serverChannel.accept().socket();
+                socket.setSoTimeout(CONNECTION_TIMEOUT); // bounds the handshake read only
+                dispatch(executor, socket);
+            }   
+        } catch (Exception e) {
+            System.err.println("Server error: " + e.getMessage());
+        } finally {
+            shutdownThreadPool(executor);
+            if (dispatcher != null) {
+                dispatcher.shutdown();
+            }
+        }
+    }
+
+    private ExecutorService createExecutor() {
+        if (mode == ExecutorMode.VIRTUAL) {
+            return Executors.newVirtualThreadPerTaskExecutor();
+        }
+        // AbortPolicy rather than CallerRunsPolicy: a full queue must never make the accept
+        // loop run a stream itself, or every new client stalls behind it
         int processors = Runtime.getRuntime().availableProcessors();
-        ThreadPoolExecutor threadPoolExecutor = new ThreadPoolExecutor(
+        return new ThreadPoolExecutor(
             processors * 2,                  
             processors * 4,                  
             60L, TimeUnit.SECONDS,
             new LinkedBlockingQueue<>(QUEUE_SIZE),
-            new ThreadPoolExecutor.CallerRunsPolicy()
+            new ThreadPoolExecutor.AbortPolicy()
         );
+    }
 
-        try (ServerSocket serverSocket = new ServerSocket(8080)) {
-            System.out.println("Server started on port 8080");
-            while(true) {
-                Socket socket = serverSocket.accept();
-                socket.setSoTimeout(CONNECTION_TIMEOUT);
-                threadPoolExecutor.submit(() -> streamSSE(socket));
-            }   
-        } catch (Exception e) {
-            System.err.println("Server error: " + e.getMessage());
-        } finally {
-            shutdownThreadPool(threadPoolExecutor);
+    // Over the connection cap, or with the pool saturated, the client gets a 503 right away
+    private void dispatch(ExecutorService executor, Socket socket) {
+        if (!connectionPermits.tryAcquire()) {
+            reject(socket);
+            return;
+        }
+        try {
+            // The permit is held for the life of the stream, not just the handshake
+            executor.execute(() -> streamSSE(socket, connectionPermits::release));
+        } catch (RejectedExecutionException e) {
+            connectionPermits.release();
+            reject(socket);
+        }
+    }
+
+    private void reject(Socket socket) {
+        try (Socket rejected = socket) {
+            rejected.getOutputStream().write(SERVICE_UNAVAILABLE);
+        } catch (IOException e) {
+            // Client already gone
         }
     }
 
-    private void shutdownThreadPool(ThreadPoolExecutor executor) {
+    private void shutdownThreadPool(ExecutorService executor) {
         executor.shutdown();
         try {
             if (!executor.awaitTermination(60, TimeUnit.SECONDS)) {
@@ -43,20 +123,90 @@ public class Server {
         }
     }
 
-    public void streamSSE(Socket socket){
-        String messages[] = new String[]{"this", "is", "data"};
-        try (OutputStream outputStream = socket.getOutputStream()){
-            PrintWriter writer = new PrintWriter(outputStream, true);
-            writer.println("HTTP/1.1 200 OK");
-            writer.println("Content-Type: text/event-stream");
-            for(String msg : messages){
-                writer.println();
-                writer.println(String.format("data: %s\n\n", msg));
-                writer.flush();
-                Thread.sleep(1000);
+    // Reads the request and writes the stream headers on the calling (executor) thread, then
+    // hands the channel to the dispatcher, which owns it until the client goes away. onClose
+    // runs exactly once when the stream ends, including when it never got started.
+    public void streamSSE(Socket socket, Runnable onClose){
+        SseHub.Subscriber subscriber = null;
+        try {
+            StreamRequest request = readRequest(socket.getInputStream());
+            OutputStream outputStream = socket.getOutputStream();
+            // Topics only come into being when published to, so a client cannot create them
+            if (request != null) subscriber = hub.subscribe(request.topic, request.lastEventId);
+            if (subscriber == null) {
+                outputStream.write(NOT_FOUND);
+                closeQuietly(socket);
+                onClose.run();
+                return;
             }
-        } catch(Exception e){
 
+            outputStream.write(STREAM_HEADERS);
+            outputStream.flush();
+
+            SseHub.Subscriber subscribed = subscriber;
+            dispatcher.register(socket.getChannel(), subscriber, () -> {
+                hub.unsubscribe(subscribed);
+                onClose.run();
+            });
+        } catch(IOException e){
+            if (subscriber != null) {
+                hub.unsubscribe(subscriber);
+            }
+            closeQuietly(socket);
+            onClose.run();
+        }
+    }
+
+    private static void closeQuietly(Socket socket) {
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // Nothing left to do
+        }
+    }
+
+    // What a stream request asks for: a topic, and where to resume it (-1 for a fresh start)
+    private static final class StreamRequest {
+        final String topic;
+        final long lastEventId;
+
+        StreamRequest(String topic, long lastEventId) {
+            this.topic = topic;
+            this.lastEventId = lastEventId;
+        }
+    }
+
+    // Topic from the request line: "GET /events/{topic}"; plain "/events" is the default topic.
+    // A reconnecting EventSource sends the last id it saw in a Last-Event-ID header.
+    private StreamRequest readRequest(InputStream inputStream) throws IOException {
+        BufferedReader reader = new BufferedReader(new InputStreamReader(inputStream, StandardCharsets.ISO_8859_1));
+        String requestLine = reader.readLine();
+        if (requestLine == null) return null;
+        long lastEventId = -1;
+        String line;
+        while ((line = reader.readLine()) != null && !line.isEmpty()) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase("Last-Event-ID")) {
+                lastEventId = parseEventId(line.substring(colon + 1).trim());
+            }
+        }
+
+        String[] parts = requestLine.split(" ");
+        if (parts.length != 3 || !parts[0].equals("GET")) return null;
+        String path = parts[1];
+        int query = path.indexOf('?');
+        if (query >= 0) path = path.substring(0, query);
+        if (path.equals("/events") || path.equals("/events/")) return new StreamRequest(DEFAULT_TOPIC, lastEventId);
+        if (path.startsWith("/events/") && path.indexOf('/', 8) < 0) return new StreamRequest(path.substring(8), lastEventId);
+        return null;
+    }
+
+    // Ids we did not issue are treated as no id at all: the client simply starts live
+    private static long parseEventId(String value) {
+        try {
+            return Math.max(-1, Long.parseLong(value));
+        } catch (NumberFormatException e) {
+            return -1;
         }
     }
 
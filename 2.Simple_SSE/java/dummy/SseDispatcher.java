@@ -0,0 +1,263 @@
+package dummy;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+// Delivers SSE streams from a single selector thread, so an idle subscriber costs a selection
+// key and a few fields rather than a parked thread.
+//
+// A connection is only touched when there is something to do: the hub signals it when an
+// event is queued, the selector when the socket drains, and the heartbeat wheel once per
+// rotation. The wheel has one slot per tick; a connection sits in one slot for its lifetime,
+// so each tick visits roughly 1/slots of all streams. A visit sends a ":heartbeat" comment if
+// nothing was written since the last visit, and closes the stream only if a write has been
+// stuck without progress for longer than the stall timeout, so quiet but healthy streams
+// live as long as the client wants.
+public class SseDispatcher implements Runnable {
+    private static final long TICK_MILLIS = 1000;
+    private static final int HEARTBEAT_TICKS = 15; // one heartbeat per 15s of silence
+    private static final ByteBuffer HEARTBEAT = ByteBuffer.wrap(":heartbeat\n\n".getBytes(StandardCharsets.US_ASCII)).asReadOnlyBuffer();
+
+    private final Selector selector;
+    private final long stallTimeoutNanos;
+    private final Queue<Connection> pending = new ConcurrentLinkedQueue<>();
+    private final Queue<Connection> ready = new ConcurrentLinkedQueue<>();
+    private final Connection[] wheel = new Connection[HEARTBEAT_TICKS]; // heads of per-slot lists
+    private final ByteBuffer discard = ByteBuffer.allocate(512);
+    private int cursor;
+    private int connections;
+    private volatile boolean running = true;
+
+    public SseDispatcher(long stallTimeoutMillis) throws IOException {
+        this.selector = Selector.open();
+        this.stallTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(stallTimeoutMillis);
+    }
+
+    // Takes over a channel whose response headers are already written. onClose runs exactly
+    // once, on the dispatcher thread, when the stream ends for any reason.
+    public void register(SocketChannel channel, SseHub.Subscriber subscriber, Runnable onClose) {
+        pending.add(new Connection(channel, subscriber, onClose));
+        selector.wakeup();
+    }
+
+    public int connectionCount() {
+        return connections;
+    }
+
+    public void shutdown() {
+        running = false;
+        selector.wakeup();
+    }
+
+    @Override
+    public void run() {
+        long nextTick = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+        while (running) {
+            try {
+                selector.select(TICK_MILLIS);
+                registerPending();
+
+                Connection connection;
+                while ((connection = ready.poll()) != null) {
+                    connection.scheduled.set(false);
+                    try {
+                        connection.flush();
+                    } catch (RuntimeException e) {
+                        connection.fail(e);
+                    }
+                }
+
+                Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                while (keys.hasNext()) {
+                    SelectionKey key = keys.next();
+                    keys.remove();
+                    Connection selected = (Connection) key.attachment();
+                    try {
+                        if (key.isValid() && key.isReadable()) selected.onReadable();
+                        if (key.isValid() && key.isWritable()) selected.flush();
+                    } catch (RuntimeException e) {
+                        selected.fail(e);
+                    }
+                }
+
+                long now = System.nanoTime();
+                while (now - nextTick >= 0) {
+                    tick(now);
+                    nextTick += TimeUnit.MILLISECONDS.toNanos(TICK_MILLIS);
+                }
+            } catch (IOException | RuntimeException e) {
+                System.err.println("SSE dispatcher error: " + e);
+            }
+        }
+        for (SelectionKey key : selector.keys()) {
+            ((Connection) key.attachment()).close();
+        }
+    }
+
+    private void registerPending() {
+        Connection connection;
+        while ((connection = pending.poll()) != null) {
+            try {
+                connection.channel.configureBlocking(false);
+                connection.key = connection.channel.register(selector, SelectionKey.OP_READ, connection);
+            } catch (IOException e) {
+                connection.close();
+                continue;
+            }
+            connections++;
+            connection.lastProgress = System.nanoTime();
+            linkIntoSlot(connection, (cursor + HEARTBEAT_TICKS - 1) % HEARTBEAT_TICKS);
+            try {
+                connection.subscriber.setListener(connection::signal);
+                connection.flush(); // anything published between subscribe and now
+            } catch (RuntimeException e) {
+                connection.fail(e);
+            }
+        }
+    }
+
+    private void tick(long now) {
+        Connection connection = wheel[cursor];
+        while (connection != null) {
+            Connection next = connection.next; // visit may unlink it
+            try {
+                connection.visit(now);
+            } catch (RuntimeException e) {
+                connection.fail(e);
+            }
+            connection = next;
+        }
+        cursor = (cursor + 1) % HEARTBEAT_TICKS;
+    }
+
+    private void linkIntoSlot(Connection connection, int slot) {
+        connection.slot = slot;
+        connection.prev = null;
+        connection.next = wheel[slot];
+        if (wheel[slot] != null) wheel[slot].prev = connection;
+        wheel[slot] = connection;
+    }
+
+    private void unlinkFromSlot(Connection connection) {
+        if (connection.prev != null) {
+            connection.prev.next = connection.next;
+        } else if (wheel[connection.slot] == connection) {
+            wheel[connection.slot] = connection.next;
+        }
+        if (connection.next != null) connection.next.prev = connection.prev;
+        connection.prev = null;
+        connection.next = null;
+    }
+
+    private final class Connection {
+        final SocketChannel channel;
+        final SseHub.Subscriber subscriber;
+        final Runnable onClose;
+        final AtomicBoolean scheduled = new AtomicBoolean();
+        SelectionKey key;
+        ByteBuffer current;      // event being written, a view over the hub's shared bytes
+        long lastProgress;       // last time bytes were accepted by the socket, or a write began
+        boolean wroteSinceVisit;
+        boolean closed;
+        int slot;
+        Connection prev;
+        Connection next;
+
+        Connection(SocketChannel channel, SseHub.Subscriber subscriber, Runnable onClose) {
+            this.channel = channel;
+            this.subscriber = subscriber;
+            this.onClose = onClose;
+        }
+
+        // Called by publishers; queues at most one wakeup no matter how many events arrive
+        void signal() {
+            if (scheduled.compareAndSet(false, true)) {
+                ready.add(this);
+                selector.wakeup();
+            }
+        }
+
+        void flush() {
+            if (closed) return;
+            if (subscriber.isClosed()) {
+                close(); // dropped by the hub as a slow consumer
+                return;
+            }
+            try {
+                while (true) {
+                    if (current == null) {
+                        byte[] event = subscriber.poll();
+                        if (event == null) break;
+                        current = ByteBuffer.wrap(event);
+                        lastProgress = System.nanoTime(); // owed nothing until now, so not stalled yet
+                    }
+                    int written = channel.write(current);
+                    if (written > 0) {
+                        lastProgress = System.nanoTime();
+                        wroteSinceVisit = true;
+                    }
+                    if (current.hasRemaining()) {
+                        key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                        return;
+                    }
+                    current = null;
+                }
+                key.interestOps(SelectionKey.OP_READ);
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        // Clients never send anything after the request; a read only tells us they hung up
+        void onReadable() {
+            try {
+                discard.clear();
+                if (channel.read(discard) < 0) close();
+            } catch (IOException e) {
+                close();
+            }
+        }
+
+        void visit(long now) {
+            if (current != null) {
+                if (now - lastProgress > stallTimeoutNanos) close();
+                return;
+            }
+            if (!wroteSinceVisit) {
+                current = HEARTBEAT.duplicate();
+                lastProgress = now;
+                flush();
+            }
+            wroteSinceVisit = false;
+        }
+
+        // A bug or a throwing onClose/listener costs this stream only, not the dispatcher thread
+        void fail(RuntimeException cause) {
+            System.err.println("SSE connection failed: " + cause);
+            close();
+        }
+
+        void close() {
+            if (closed) return;
+            closed = true;
+            unlinkFromSlot(this);
+            if (key != null) {
+                key.cancel();
+                connections--;
+            }
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // Already gone
+            }
+            onClose.run();
+        }
+    }
+}
@@ -0,0 +1,195 @@
+package dummy;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Publish/subscribe hub for server-sent events.
+//
+// A published event is encoded to its wire form once and the same bytes are handed to every
+// subscriber of the topic. Each subscriber has its own bounded queue, so a slow reader only
+// ever hurts itself: when its queue is full it is either disconnected (DROP) or has its
+// backlog collapsed to the newest event (COALESCE). Publishing never blocks.
+//
+// Every event gets an id, and each topic keeps its last replayCapacity events in an EventRing,
+// so a client reconnecting with Last-Event-ID is sent only the events it missed.
+//
+// Topics are created by publishing (or createTopic), never by subscribing: topic names come
+// from clients, and each topic holds a replay ring for good.
+public class SseHub {
+    private static final int DEFAULT_QUEUE_CAPACITY = 256;
+    private static final int DEFAULT_REPLAY_CAPACITY = 1024;
+
+    public enum SlowConsumerPolicy { DROP, COALESCE }
+
+    private final ConcurrentHashMap<String, Topic> topics = new ConcurrentHashMap<>();
+    private final int queueCapacity;
+    private final SlowConsumerPolicy policy;
+    private final int replayCapacity;
+
+    public SseHub() {
+        this(DEFAULT_QUEUE_CAPACITY, SlowConsumerPolicy.DROP);
+    }
+
+    public SseHub(int queueCapacity, SlowConsumerPolicy policy) {
+        this(queueCapacity, policy, DEFAULT_REPLAY_CAPACITY);
+    }
+
+    // replayCapacity is rounded up to a power of two; it bounds each topic's replay memory
+    public SseHub(int queueCapacity, SlowConsumerPolicy policy, int replayCapacity) {
+        this.queueCapacity = queueCapacity;
+        this.policy = policy;
+        this.replayCapacity = replayCapacity;
+    }
+
+    // Makes the topic available to subscribers before anything is published to it
+    public void createTopic(String topic) {
+        topic(topic);
+    }
+
+    public Subscriber subscribe(String topic) {
+        return subscribe(topic, -1);
+    }
+
+    // Null if the topic does not exist. With lastEventId >= 0, the subscriber first receives
+    // the retained events after that id. It joins the live fan-out before the ring is read, so
+    // nothing published in between is lost; events that arrive both ways are delivered once.
+    public Subscriber subscribe(String topic, long lastEventId) {
+        Topic state = topics.get(topic);
+        if (state == null) return null;
+        Subscriber subscriber = new Subscriber(topic, queueCapacity);
+        state.subscribers.add(subscriber);
+        if (lastEventId >= 0 && lastEventId < state.ring.lastId()) {
+            state.ring.replay(lastEventId, state.ring.lastId(), subscriber.replay);
+            if (!subscriber.replay.isEmpty()) subscriber.replayedUpTo = subscriber.replay.peekLast().id;
+        }
+        return subscriber;
+    }
+
+    public void unsubscribe(Subscriber subscriber) {
+        Topic state = topics.get(subscriber.topic);
+        if (state != null) {
+            state.subscribers.remove(subscriber);
+        }
+    }
+
+    // Encodes the event once, records it for replay and fans it out; returns how many
+    // subscribers received it.
+    public int publish(String topic, String data) {
+        Topic state = topic(topic);
+        EventRing.Event event = state.ring.append(data);
+        int delivered = 0;
+        for (Subscriber subscriber : state.subscribers) {
+            if (subscriber.offer(event, policy)) {
+                delivered++;
+            } else {
+                state.subscribers.remove(subscriber);
+            }
+        }
+        return delivered;
+    }
+
+    public int subscriberCount(String topic) {
+        Topic state = topics.get(topic);
+        return state == null ? 0 : state.subscribers.size();
+    }
+
+    private Topic topic(String name) {
+        return topics.computeIfAbsent(name, t -> new Topic(replayCapacity));
+    }
+
+    // Multi-line data becomes one "data:" field per line, as the event-stream format requires
+    static byte[] encode(long id, String data) {
+        StringBuilder event = new StringBuilder(data.length() + 32);
+        event.append("id: ").append(id).append('\n');
+        for (String line : data.split("\r\n|\r|\n", -1)) {
+            event.append("data: ").append(line).append('\n');
+        }
+        event.append('\n');
+        return event.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static final class Topic {
+        final CopyOnWriteArrayList<Subscriber> subscribers = new CopyOnWriteArrayList<>();
+        final EventRing ring;
+
+        Topic(int replayCapacity) {
+            this.ring = new EventRing(replayCapacity);
+        }
+    }
+
+    // One connected client: a bounded queue of encoded events waiting to be written.
+    public static class Subscriber {
+        private final String topic;
+        private final BlockingQueue<EventRing.Event> queue;
+        // Filled once by subscribe() before the subscriber is handed on; read only by poll()
+        private final ArrayDeque<EventRing.Event> replay = new ArrayDeque<>();
+        private long replayedUpTo = -1;
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile Runnable listener = () -> { };
+        private volatile boolean closed;
+
+        Subscriber(String topic, int capacity) {
+            this.topic = topic;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+        }
+
+        public String topic() {
+            return topic;
+        }
+
+        // Next event to send, replayed ones first, or null if there is none (or the subscriber
+        // is closed). Live events already covered by the replay are skipped.
+        public byte[] poll() {
+            if (closed) return null;
+            EventRing.Event event = replay.poll();
+            if (event != null) return event.bytes;
+            while ((event = queue.poll()) != null && event.id <= replayedUpTo) {
+                // Published while subscribing, already sent from the ring
+            }
+            return event == null ? null : event.bytes;
+        }
+
+        // Run on the publishing thread whenever an event is queued or the subscriber is dropped;
+        // must be cheap and must not block.
+        public void setListener(Runnable listener) {
+            this.listener = listener;
+        }
+
+        public boolean isClosed() {
+            return closed;
+        }
+
+        public long droppedCount() {
+            return dropped.get();
+        }
+
+        public void close() {
+            closed = true;
+            queue.clear();
+            listener.run();
+        }
+
+        // False once the subscriber is (or has just been) disconnected
+        boolean offer(EventRing.Event event, SlowConsumerPolicy policy) {
+            if (closed) return false;
+            if (queue.offer(event)) {
+                listener.run();
+                return true;
+            }
+
+            if (policy == SlowConsumerPolicy.DROP) {
+                dropped.incrementAndGet();
+                close();
+                return false;
+            }
+            // COALESCE: the backlog is stale anyway, keep only the newest event
+            dropped.addAndGet(queue.size());
+            queue.clear();
+            queue.offer(event);
+            listener.run();
+            return true;
+        }
+    }
+}
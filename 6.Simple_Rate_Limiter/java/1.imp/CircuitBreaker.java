@@ -0,0 +1,85 @@
+package com.example.ratelimiter;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Stops calling a backend that keeps failing or answering slowly, so callers get their
+// fallback immediately instead of each waiting out a timeout.
+//
+// CLOSED: calls go through; failureThreshold consecutive failures (errors, or calls slower than
+// slowCallMillis) open the breaker. OPEN: calls are refused for openMillis. HALF_OPEN: one trial
+// call is let through; success closes the breaker, failure opens it for another openMillis.
+// Lock-free, so a healthy backend costs one volatile read and, after a failure streak, a reset.
+public class CircuitBreaker {
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    // Values of `state` other than the opening time of an OPEN breaker
+    private static final long STATE_CLOSED = Long.MIN_VALUE;
+    private static final long STATE_HALF_OPEN = Long.MIN_VALUE + 1;
+
+    private final int failureThreshold;
+    private final long slowCallNanos;
+    private final long openNanos;
+    // STATE_CLOSED, STATE_HALF_OPEN, or the System.nanoTime() at which the breaker opened, so
+    // a state and its opening time change together in one CAS
+    private final AtomicLong state = new AtomicLong(STATE_CLOSED);
+    private final AtomicInteger consecutiveFailures = new AtomicInteger();
+    private final AtomicBoolean trialInFlight = new AtomicBoolean();
+
+    public CircuitBreaker(int failureThreshold, long slowCallMillis, long openMillis) {
+        this.failureThreshold = failureThreshold;
+        this.slowCallNanos = slowCallMillis * 1_000_000;
+        this.openNanos = openMillis * 1_000_000;
+    }
+
+    public State getState() {
+        long current = state.get();
+        if (current == STATE_CLOSED) return State.CLOSED;
+        return current == STATE_HALF_OPEN ? State.HALF_OPEN : State.OPEN;
+    }
+
+    // True if the caller may call the backend now; it must then report onSuccess or onFailure
+    public boolean tryAcquire() {
+        long current = state.get();
+        if (current == STATE_CLOSED) return true;
+        if (current == STATE_HALF_OPEN) return trialInFlight.compareAndSet(false, true);
+        if (System.nanoTime() - current < openNanos) return false;
+        if (state.compareAndSet(current, STATE_HALF_OPEN)) {
+            trialInFlight.set(true);
+            return true;
+        }
+        return false;
+    }
+
+    public void onSuccess(long elapsedNanos) {
+        if (elapsedNanos > slowCallNanos) {
+            onFailure();
+            return;
+        }
+        if (consecutiveFailures.get() != 0) consecutiveFailures.set(0);
+        if (state.get() == STATE_HALF_OPEN && state.compareAndSet(STATE_HALF_OPEN, STATE_CLOSED)) {
+            trialInFlight.set(false);
+        }
+    }
+
+    public void onFailure() {
+        if (state.get() == STATE_HALF_OPEN) {
+            open(STATE_HALF_OPEN);
+            trialInFlight.set(false);
+            return;
+        }
+        if (consecutiveFailures.incrementAndGet() >= failureThreshold) {
+            open(STATE_CLOSED);
+        }
+    }
+
+    // Only the transition that wins sets the opening time, so late failures from calls that
+    // were already in flight cannot push back the end of an open period
+    private void open(long from) {
+        if (state.compareAndSet(from, System.nanoTime())) {
+            consecutiveFailures.set(0);
+        }
+    }
+}
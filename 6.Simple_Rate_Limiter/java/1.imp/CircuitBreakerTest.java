@@ -0,0 +1,149 @@
+package com.example.ratelimiter;
+
+import javax.servlet.http.HttpServletResponse;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Drives RateLimiter through a backend with injected latency and failures and checks what the
+// circuit breaker and each FailMode do with it, and that the breaker recovers. Run with
+// `java com.example.ratelimiter.CircuitBreakerTest`; it exits non-zero on the first failed check.
+public class CircuitBreakerTest {
+    private static final int FAILURES_TO_OPEN = 3;
+    private static final long SLOW_CALL_MILLIS = 20;
+    private static final long OPEN_MILLIS = 200;
+
+    public static void main(String[] args) throws Exception {
+        errorsOpenTheBreakerAndFailModesApply();
+        slowCallsOpenTheBreakerAndFallbacksAreFast();
+        breakerRecoversOnceTheBackendDoes();
+        lateFailuresDoNotExtendAnOpenBreaker();
+        System.out.println("All checks passed");
+    }
+
+    private static void errorsOpenTheBreakerAndFailModesApply() {
+        InjectingBackend backend = new InjectingBackend();
+        RateLimiter limiter = limiter(backend);
+        backend.failing = true;
+        for (int i = 0; i < FAILURES_TO_OPEN; i++) {
+            allow(limiter, "local", "u");
+        }
+        check(limiter.getCircuitBreaker().getState() == CircuitBreaker.State.OPEN, "breaker not open after errors");
+
+        int calls = backend.calls.get();
+        check(allow(limiter, "open", "u"), "OPEN fail mode refused a request");
+        check(!allow(limiter, "closed", "u"), "CLOSED fail mode admitted a request");
+        // LOCAL has a limit of 5 per node; three were already charged locally as the backend failed
+        check(allow(limiter, "local", "u") && allow(limiter, "local", "u"), "LOCAL refused within its limit");
+        check(!allow(limiter, "local", "u"), "LOCAL admitted past its limit");
+        check(backend.calls.get() == calls, "the backend was called while the breaker was open");
+        check(limiter.getMetrics().getBackendErrorCount() == FAILURES_TO_OPEN, "backend errors not counted");
+    }
+
+    private static void slowCallsOpenTheBreakerAndFallbacksAreFast() {
+        InjectingBackend backend = new InjectingBackend();
+        RateLimiter limiter = limiter(backend);
+        backend.latencyMillis = 3 * SLOW_CALL_MILLIS;
+        for (int i = 0; i < FAILURES_TO_OPEN; i++) {
+            check(allow(limiter, "local", "slow" + i), "a slow but successful call was refused");
+        }
+        check(limiter.getCircuitBreaker().getState() == CircuitBreaker.State.OPEN, "breaker not open after slow calls");
+        long start = System.nanoTime();
+        allow(limiter, "local", "u");
+        long elapsedMillis = (System.nanoTime() - start) / 1_000_000;
+        check(elapsedMillis < SLOW_CALL_MILLIS, "fallback took " + elapsedMillis + "ms");
+    }
+
+    private static void breakerRecoversOnceTheBackendDoes() throws InterruptedException {
+        InjectingBackend backend = new InjectingBackend();
+        RateLimiter limiter = limiter(backend);
+        CircuitBreaker breaker = limiter.getCircuitBreaker();
+        backend.failing = true;
+        for (int i = 0; i < FAILURES_TO_OPEN; i++) {
+            allow(limiter, "closed", "u");
+        }
+        check(breaker.getState() == CircuitBreaker.State.OPEN, "breaker not open");
+
+        // A failed trial call opens it again
+        Thread.sleep(OPEN_MILLIS + 50);
+        int calls = backend.calls.get();
+        allow(limiter, "closed", "u");
+        check(backend.calls.get() == calls + 1, "no trial call after the open period");
+        check(breaker.getState() == CircuitBreaker.State.OPEN, "breaker not reopened by a failed trial");
+
+        // A successful one closes it, and requests reach the backend again
+        backend.failing = false;
+        Thread.sleep(OPEN_MILLIS + 50);
+        check(allow(limiter, "closed", "u"), "trial call refused");
+        check(breaker.getState() == CircuitBreaker.State.CLOSED, "breaker not closed by a good trial");
+        calls = backend.calls.get();
+        check(allow(limiter, "closed", "u") && backend.calls.get() == calls + 1, "backend not used after recovery");
+    }
+
+    // Calls already in flight when the breaker opened fail later; they must not restart the
+    // open period
+    private static void lateFailuresDoNotExtendAnOpenBreaker() throws InterruptedException {
+        CircuitBreaker breaker = new CircuitBreaker(FAILURES_TO_OPEN, SLOW_CALL_MILLIS, OPEN_MILLIS);
+        for (int i = 0; i < FAILURES_TO_OPEN; i++) {
+            breaker.onFailure();
+        }
+        long opened = System.nanoTime();
+        Thread.sleep(OPEN_MILLIS / 2);
+        for (int i = 0; i < 2 * FAILURES_TO_OPEN; i++) {
+            breaker.onFailure();
+        }
+        Thread.sleep(OPEN_MILLIS + 20 - (System.nanoTime() - opened) / 1_000_000);
+        check(breaker.tryAcquire(), "open period was extended by late failures");
+        check(breaker.getState() == CircuitBreaker.State.HALF_OPEN, "no trial call let through");
+    }
+
+    private static RateLimiter limiter(RateLimitBackend backend) {
+        RateLimiter limiter = new RateLimiter(backend, new CircuitBreaker(FAILURES_TO_OPEN, SLOW_CALL_MILLIS, OPEN_MILLIS));
+        limiter.configure("open", 5, 60, 1, RateLimiter.FailMode.OPEN);
+        limiter.configure("closed", 5, 60, 1, RateLimiter.FailMode.CLOSED);
+        limiter.configure("local", 5, 60, 1, RateLimiter.FailMode.LOCAL);
+        return limiter;
+    }
+
+    private static boolean allow(RateLimiter limiter, String endpoint, String userId) {
+        return limiter.allow(endpoint, userId, response());
+    }
+
+    // RateLimiter only sets the status and headers, so a response that ignores every call will do
+    private static HttpServletResponse response() {
+        return (HttpServletResponse) Proxy.newProxyInstance(CircuitBreakerTest.class.getClassLoader(),
+                new Class<?>[] {HttpServletResponse.class}, (proxy, method, methodArgs) -> {
+                    Class<?> type = method.getReturnType();
+                    if (type == boolean.class) return false;
+                    if (type == int.class) return 0;
+                    if (type == long.class) return 0L;
+                    return null;
+                });
+    }
+
+    // An in-process backend that can be made slow or failing
+    private static class InjectingBackend implements RateLimitBackend {
+        private final LocalRateLimitBackend delegate = new LocalRateLimitBackend();
+        final AtomicInteger calls = new AtomicInteger();
+        volatile long latencyMillis;
+        volatile boolean failing;
+
+        @Override
+        public Decision acquire(String endpoint, String userId, int maxCredits, long windowSeconds, int creditCost,
+                                long nowMillis) {
+            calls.incrementAndGet();
+            if (latencyMillis > 0) {
+                try {
+                    Thread.sleep(latencyMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+            if (failing) throw new IllegalStateException("injected backend failure");
+            return delegate.acquire(endpoint, userId, maxCredits, windowSeconds, creditCost, nowMillis);
+        }
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.ratelimiter;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+// Approximate top-K of the keys offered to it, e.g. the most throttled userIds.
+//
+// offer() is what the request path calls, so it only claims a slot in a bounded multi-producer
+// ring with a CAS and stores the key; it never locks or waits. Once the ring is half full it is
+// handed to a shared background thread that drains it into a Space-Saving summary of k
+// counters, so keys offered late in a busy interval are counted as well as the early ones;
+// readers of the top-K drain it too. A key that finds the ring full anyway is dropped and
+// counted. The summary is only touched under this object's monitor, by the drainer and readers.
+// Space-Saving guarantees that any key seen more than total / k times is in the summary, with
+// its count overestimated by at most its error.
+final class HeavyHitters {
+    private static final Queue<HeavyHitters> DRAIN_REQUESTS = new ConcurrentLinkedQueue<>();
+    private static final Thread DRAINER = startDrainer();
+
+    static final class Entry {
+        final String key;
+        final long count;
+        final long error; // count may be overestimated by up to this much
+
+        Entry(String key, long count, long error) {
+            this.key = key;
+            this.count = count;
+            this.error = error;
+        }
+
+        @Override
+        public String toString() {
+            return key + "=" + count + (error > 0 ? " (+/-" + error + ")" : "");
+        }
+    }
+
+    private final int k;
+    private final AtomicReferenceArray<String> ring;
+    private final int mask;
+    private final AtomicLong tail = new AtomicLong(); // next slot to claim
+    private volatile long head;                       // next slot to drain; written under the monitor only
+    private final LongAdder dropped = new LongAdder();
+    private final AtomicBoolean drainRequested = new AtomicBoolean(); // queued for the drainer
+    private final Map<String, long[]> counters = new HashMap<>(); // key -> {count, error}
+
+    HeavyHitters(int k, int ringCapacity) {
+        int size = 1;
+        while (size < ringCapacity) size <<= 1;
+        this.k = k;
+        this.ring = new AtomicReferenceArray<>(size);
+        this.mask = size - 1;
+    }
+
+    void offer(String key) {
+        long slot;
+        do {
+            slot = tail.get();
+            if (slot - head >= ring.length()) {
+                dropped.increment();
+                requestDrain();
+                return;
+            }
+        } while (!tail.compareAndSet(slot, slot + 1));
+        ring.set((int) (slot & mask), key);
+        if (slot + 1 - head >= ring.length() / 2) requestDrain();
+    }
+
+    // Lock-free: at most one queued request per ring, and unpark never blocks
+    private void requestDrain() {
+        if (drainRequested.compareAndSet(false, true)) {
+            DRAIN_REQUESTS.add(this);
+            LockSupport.unpark(DRAINER);
+        }
+    }
+
+    private static Thread startDrainer() {
+        Thread drainer = new Thread(() -> {
+            while (true) {
+                HeavyHitters hitters;
+                while ((hitters = DRAIN_REQUESTS.poll()) != null) {
+                    hitters.drainRequested.set(false);
+                    synchronized (hitters) {
+                        hitters.drain();
+                    }
+                }
+                LockSupport.park(); // a request made since the poll has already left a permit
+            }
+        }, "heavy-hitters-drainer");
+        drainer.setDaemon(true);
+        drainer.start();
+        return drainer;
+    }
+
+    // Keys offered but never counted because the ring was full
+    long droppedCount() {
+        return dropped.sum();
+    }
+
+    synchronized List<Entry> top() {
+        drain();
+        List<Entry> entries = new ArrayList<>(counters.size());
+        for (Map.Entry<String, long[]> counter : counters.entrySet()) {
+            entries.add(new Entry(counter.getKey(), counter.getValue()[0], counter.getValue()[1]));
+        }
+        entries.sort((a, b) -> Long.compare(b.count, a.count));
+        return entries;
+    }
+
+    private void drain() {
+        long position = head;
+        String key;
+        // A claimed slot that is still null is being written; it is picked up next time
+        while (position != tail.get() && (key = ring.getAndSet((int) (position & mask), null)) != null) {
+            count(key);
+            position++;
+        }
+        head = position;
+    }
+
+    private void count(String key) {
+        long[] counter = counters.get(key);
+        if (counter != null) {
+            counter[0]++;
+            return;
+        }
+        if (counters.size() < k) {
+            counters.put(key, new long[] {1, 0});
+            return;
+        }
+        // Replace the smallest counter; the newcomer inherits its count as possible error
+        String smallest = null;
+        long min = Long.MAX_VALUE;
+        for (Map.Entry<String, long[]> candidate : counters.entrySet()) {
+            if (candidate.getValue()[0] < min) {
+                min = candidate.getValue()[0];
+                smallest = candidate.getKey();
+            }
+        }
+        counters.remove(smallest);
+        counters.put(key, new long[] {min + 1, min});
+    }
+}
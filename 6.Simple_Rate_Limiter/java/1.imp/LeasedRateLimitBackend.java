@@ -0,0 +1,197 @@
+package com.example.ratelimiter;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+// Two-tier limiter: each node leases blocks of credits per key from Redis and spends them
+// locally, so a hot key costs one Redis call per batch instead of one per request.
+//
+// The first request for a key leases synchronously. After that, when a lease drops below a
+// quarter of the batch, a background refill leases the next block while requests keep being
+// served from what is left. Up to overAdmission credits may be spent beyond the lease while a
+// refill is outstanding; that debt is netted against the next block, so the fleet can exceed
+// a limit by at most overAdmission per node. Leases idle for leaseTtlMillis are retired and
+// their unspent credits refunded to Redis, scored at the time they were charged, so both
+// expire from the window together. Until then, credits sitting unspent in a lease on one node
+// are not available to the others, so the fleet may under-admit by up to one batch per node.
+public class LeasedRateLimitBackend implements RateLimitBackend, AutoCloseable {
+
+    private static final long RETIRED = Long.MIN_VALUE / 2;
+    private static final long REFILL_BACKOFF_MILLIS = 1000;
+    private static final long SWEEP_INTERVAL_MILLIS = 1000;
+
+    private final RedisRateLimitBackend redis;
+    private final int batchSize;
+    private final int overAdmission;
+    private final long leaseTtlMillis;
+    private final Map<String, Lease> leases = new ConcurrentHashMap<>();
+    private final ScheduledExecutorService refills;
+
+    public LeasedRateLimitBackend(RedisRateLimitBackend redis, int batchSize, int overAdmission, long leaseTtlMillis) {
+        this.redis = redis;
+        this.batchSize = batchSize;
+        this.overAdmission = overAdmission;
+        this.leaseTtlMillis = leaseTtlMillis;
+        this.refills = Executors.newScheduledThreadPool(2, runnable -> {
+            Thread thread = new Thread(runnable, "rate-lease-refill");
+            thread.setDaemon(true);
+            return thread;
+        });
+        refills.scheduleWithFixedDelay(() -> retireIdle(System.currentTimeMillis()),
+                SWEEP_INTERVAL_MILLIS, SWEEP_INTERVAL_MILLIS, TimeUnit.MILLISECONDS);
+    }
+
+    @Override
+    public Decision acquire(String endpoint, String userId, int maxCredits, long windowSeconds, int creditCost, long nowMillis) {
+        while (true) {
+            Lease lease = leases.computeIfAbsent(endpoint + ":" + userId, k -> new Lease(endpoint, userId));
+            lease.maxCredits = maxCredits;
+            lease.windowSeconds = windowSeconds;
+            lease.lastUsed = nowMillis;
+            if (!lease.primed) {
+                synchronized (lease) {
+                    if (!lease.primed) {
+                        refill(lease, nowMillis);
+                        lease.primed = true;
+                    }
+                }
+            }
+
+            // No borrowing against a refill that Redis just refused
+            long floor = nowMillis < lease.retryAt ? 0 : -overAdmission;
+            long remaining;
+            while ((remaining = lease.remaining.get()) > RETIRED / 2) {
+                long after = remaining - creditCost;
+                if (after < floor) {
+                    requestRefill(lease, nowMillis);
+                    return new Decision(false, lease.usedEstimate(), lease.resetTime);
+                }
+                if (lease.remaining.compareAndSet(remaining, after)) {
+                    if (after < Math.min(batchSize, maxCredits) / 4) requestRefill(lease, nowMillis);
+                    return new Decision(true, lease.usedEstimate(), lease.resetTime);
+                }
+            }
+            // Retired by the sweeper between lookup and spend; take a fresh lease
+        }
+    }
+
+    // Retires every lease and refunds its unspent credits
+    @Override
+    public void close() {
+        refills.shutdownNow();
+        for (Lease lease : leases.values()) {
+            retire(lease, System.currentTimeMillis());
+        }
+    }
+
+    public int leaseCount() {
+        return leases.size();
+    }
+
+    private void requestRefill(Lease lease, long nowMillis) {
+        if (nowMillis < lease.retryAt || !lease.refilling.compareAndSet(false, true)) return;
+        refills.execute(() -> {
+            try {
+                synchronized (lease) {
+                    refill(lease, System.currentTimeMillis());
+                }
+            } catch (RuntimeException e) {
+                lease.retryAt = System.currentTimeMillis() + REFILL_BACKOFF_MILLIS;
+            } finally {
+                lease.refilling.set(false);
+            }
+        });
+    }
+
+    // Leases a full batch, or whatever is left of the limit if that is less
+    private void refill(Lease lease, long nowMillis) {
+        int grant = Math.min(batchSize, lease.maxCredits);
+        Decision decision = redis.acquire(lease.endpoint, lease.userId, lease.maxCredits, lease.windowSeconds, grant, nowMillis);
+        if (!decision.isAllowed() && decision.getUsedCredits() < lease.maxCredits) {
+            grant = (int) (lease.maxCredits - decision.getUsedCredits());
+            decision = redis.acquire(lease.endpoint, lease.userId, lease.maxCredits, lease.windowSeconds, grant, nowMillis);
+        }
+        lease.globalUsed = decision.getUsedCredits();
+        lease.resetTime = decision.getResetTime();
+        if (!decision.isAllowed()) {
+            lease.retryAt = nowMillis + REFILL_BACKOFF_MILLIS;
+            return;
+        }
+        lease.previousGrant = lease.lastGrant;
+        lease.previousGrantAt = lease.lastGrantAt;
+        lease.lastGrant = grant;
+        lease.lastGrantAt = nowMillis;
+        lease.remaining.addAndGet(grant);
+    }
+
+    private void retireIdle(long nowMillis) {
+        for (Lease lease : leases.values()) {
+            if (nowMillis - lease.lastUsed > leaseTtlMillis && !lease.refilling.get()) {
+                retire(lease, nowMillis);
+            }
+        }
+    }
+
+    private void retire(Lease lease, long nowMillis) {
+        leases.remove(lease.endpoint + ":" + lease.userId, lease);
+        long unspent = lease.remaining.getAndSet(RETIRED);
+        if (unspent <= 0) return;
+        long fromLast;
+        long fromPrevious;
+        long lastGrantAt;
+        long previousGrantAt;
+        synchronized (lease) {
+            // Unspent credits come from the newest block first; anything beyond it is from the one before
+            fromLast = Math.min(unspent, lease.lastGrant);
+            fromPrevious = Math.min(unspent - fromLast, lease.previousGrant);
+            lastGrantAt = lease.lastGrantAt;
+            previousGrantAt = lease.previousGrantAt;
+        }
+        try {
+            if (fromLast > 0) {
+                redis.refund(lease.endpoint, lease.userId, lease.maxCredits, lease.windowSeconds,
+                        (int) fromLast, lastGrantAt, nowMillis);
+            }
+            if (fromPrevious > 0) {
+                redis.refund(lease.endpoint, lease.userId, lease.maxCredits, lease.windowSeconds,
+                        (int) fromPrevious, previousGrantAt, nowMillis);
+            }
+        } catch (RuntimeException e) {
+            // The credits simply stay charged until they leave the window
+        }
+    }
+
+    private static final class Lease {
+        final String endpoint;
+        final String userId;
+        final AtomicLong remaining = new AtomicLong(); // credits leased and not yet spent; negative is debt
+        final AtomicBoolean refilling = new AtomicBoolean();
+        volatile boolean primed;
+        volatile int maxCredits;
+        volatile long windowSeconds;
+        volatile long lastUsed;
+        volatile long retryAt;
+        volatile long globalUsed;  // fleet-wide usage as of the last refill, leased blocks included
+        volatile long resetTime;
+        // Written only under the lease's monitor
+        long lastGrant;
+        long lastGrantAt;
+        long previousGrant;
+        long previousGrantAt;
+
+        Lease(String endpoint, String userId) {
+            this.endpoint = endpoint;
+            this.userId = userId;
+        }
+
+        // Approximate: credits leased here but not yet spent do not count as used
+        long usedEstimate() {
+            return Math.min(maxCredits, Math.max(0, globalUsed - remaining.get()));
+        }
+    }
+}
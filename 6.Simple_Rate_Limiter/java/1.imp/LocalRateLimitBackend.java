@@ -0,0 +1,188 @@
+package com.example.ratelimiter;
+
+// In-process sliding-window counter: no network round-trips, but limits are per node.
+//
+// Each (endpoint, user) pair is hashed to a 64-bit key and kept in one of a fixed number of
+// stripes, each an open-addressing table over primitive arrays guarded by its own monitor, so
+// unrelated users rarely contend and a decision allocates nothing but its result.
+//
+// Per key we keep the credits used in the current fixed window and in the previous one. The
+// sliding-window estimate counts the previous window in proportion to how much of it still
+// overlaps the last windowSeconds, e.g. 30% into the current window, 70% of the previous
+// window's credits still count. It needs two counters instead of one entry per credit, and
+// stays within a few percent of an exact log for smooth traffic.
+//
+// A key is idle once both of its windows have passed; idle keys are dropped whenever a stripe
+// would otherwise have to grow, and by evictIdle(), which callers can run periodically to give
+// memory back after a burst of one-off users.
+public class LocalRateLimitBackend implements RateLimitBackend {
+
+    private static final int DEFAULT_STRIPES = 64;
+    private static final int MIN_STRIPE_CAPACITY = 16;
+
+    private final Stripe[] stripes;
+    private final int stripeMask;
+
+    public LocalRateLimitBackend() {
+        this(DEFAULT_STRIPES);
+    }
+
+    // stripes is rounded up to a power of two; a few times the core count keeps contention low
+    public LocalRateLimitBackend(int stripes) {
+        int count = 1;
+        while (count < stripes) count <<= 1;
+        this.stripes = new Stripe[count];
+        for (int i = 0; i < count; i++) {
+            this.stripes[i] = new Stripe();
+        }
+        this.stripeMask = count - 1;
+    }
+
+    @Override
+    public Decision acquire(String endpoint, String userId, int maxCredits, long windowSeconds, int creditCost, long nowMillis) {
+        long key = key(endpoint, userId);
+        // High bits pick the stripe, low bits the slot within it
+        Stripe stripe = stripes[(int) (key >>> 40) & stripeMask];
+        synchronized (stripe) {
+            return stripe.acquire(key, maxCredits, windowSeconds * 1000, creditCost, nowMillis);
+        }
+    }
+
+    // Drops every idle key; returns how many were removed
+    public int evictIdle(long nowMillis) {
+        int evicted = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                int before = stripe.size;
+                stripe.rebuild(nowMillis, 0);
+                evicted += before - stripe.size;
+            }
+        }
+        return evicted;
+    }
+
+    public int size() {
+        int size = 0;
+        for (Stripe stripe : stripes) {
+            synchronized (stripe) {
+                size += stripe.size;
+            }
+        }
+        return size;
+    }
+
+    // 64-bit FNV-1a over both strings (the endpoint length is mixed in so "a:b"+"c" and
+    // "a"+"b:c" differ), finished with the MurmurHash3 mixer so every bit is usable.
+    // 0 marks an empty slot and is never returned.
+    static long key(String endpoint, String userId) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < endpoint.length(); i++) {
+            h = (h ^ endpoint.charAt(i)) * 0x100000001b3L;
+        }
+        h = (h ^ endpoint.length()) * 0x100000001b3L;
+        for (int i = 0; i < userId.length(); i++) {
+            h = (h ^ userId.charAt(i)) * 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h == 0 ? 1 : h;
+    }
+
+    // Linear-probing table; parallel arrays so a slot is a handful of primitives, not an object
+    private static final class Stripe {
+        private long[] keys = new long[MIN_STRIPE_CAPACITY];
+        private long[] windowStart = new long[MIN_STRIPE_CAPACITY];  // current fixed window, epoch millis
+        private long[] windowMillis = new long[MIN_STRIPE_CAPACITY];
+        private int[] current = new int[MIN_STRIPE_CAPACITY];        // credits used in the current window
+        private int[] previous = new int[MIN_STRIPE_CAPACITY];       // credits used in the window before it
+        private int size;
+
+        Decision acquire(long key, int maxCredits, long window, int creditCost, long now) {
+            int slot = slotFor(key, now);
+            long start = now - Math.floorMod(now, window);
+            if (windowMillis[slot] != window) {
+                // New key, or the endpoint was reconfigured: start counting afresh
+                windowMillis[slot] = window;
+                windowStart[slot] = start;
+                current[slot] = 0;
+                previous[slot] = 0;
+            } else if (windowStart[slot] != start) {
+                previous[slot] = start - windowStart[slot] == window ? current[slot] : 0;
+                current[slot] = 0;
+                windowStart[slot] = start;
+            }
+
+            long overlap = window - (now - start);
+            long used = previous[slot] * overlap / window + current[slot];
+            long resetTime = (start + window) / 1000;
+            if (used + creditCost > maxCredits) {
+                return new Decision(false, used, resetTime);
+            }
+            current[slot] += creditCost;
+            return new Decision(true, used + creditCost, resetTime);
+        }
+
+        private int slotFor(long key, long now) {
+            int slot = find(keys, key);
+            if (keys[slot] == key) return slot;
+            if ((size + 1) * 4 > keys.length * 3) {
+                rebuild(now, 1);
+                slot = find(keys, key);
+            }
+            keys[slot] = key;
+            windowMillis[slot] = 0; // marks the slot as unconfigured for acquire()
+            size++;
+            return slot;
+        }
+
+        // Slot holding key, or the empty slot where it belongs
+        private static int find(long[] keys, long key) {
+            int mask = keys.length - 1;
+            int slot = (int) key & mask;
+            while (keys[slot] != 0 && keys[slot] != key) {
+                slot = (slot + 1) & mask;
+            }
+            return slot;
+        }
+
+        // Rehashes the live keys into a table sized for them plus `extra`, at most half full
+        void rebuild(long now, int extra) {
+            int live = 0;
+            for (int i = 0; i < keys.length; i++) {
+                if (keys[i] != 0 && !isIdle(i, now)) live++;
+            }
+            int capacity = MIN_STRIPE_CAPACITY;
+            while (capacity < (live + extra) * 2) capacity <<= 1;
+
+            long[] oldKeys = keys;
+            long[] oldStart = windowStart;
+            long[] oldWindow = windowMillis;
+            int[] oldCurrent = current;
+            int[] oldPrevious = previous;
+            keys = new long[capacity];
+            windowStart = new long[capacity];
+            windowMillis = new long[capacity];
+            current = new int[capacity];
+            previous = new int[capacity];
+            size = 0;
+            for (int i = 0; i < oldKeys.length; i++) {
+                if (oldKeys[i] == 0 || now >= oldStart[i] + 2 * oldWindow[i]) continue;
+                int slot = find(keys, oldKeys[i]);
+                keys[slot] = oldKeys[i];
+                windowStart[slot] = oldStart[i];
+                windowMillis[slot] = oldWindow[i];
+                current[slot] = oldCurrent[i];
+                previous[slot] = oldPrevious[i];
+                size++;
+            }
+        }
+
+        // Both counted windows are over, so the key would start again from zero anyway
+        private boolean isIdle(int slot, long now) {
+            return now >= windowStart[slot] + 2 * windowMillis[slot];
+        }
+    }
+}
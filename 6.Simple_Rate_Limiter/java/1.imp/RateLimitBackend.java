@@ -0,0 +1,35 @@
+package com.example.ratelimiter;
+
+// Where RateLimiter keeps its per-user credit counts. Implementations decide and charge in
+// one step: a request is either admitted and its cost recorded, or refused and nothing changes.
+public interface RateLimitBackend {
+
+    // Charges creditCost against (endpoint, userId) if it fits in maxCredits over the last
+    // windowSeconds; nowMillis is the caller's clock, so every backend agrees on time.
+    Decision acquire(String endpoint, String userId, int maxCredits, long windowSeconds, int creditCost, long nowMillis);
+
+    final class Decision {
+        private final boolean allowed;
+        private final long usedCredits;
+        private final long resetTime; // epoch seconds
+
+        public Decision(boolean allowed, long usedCredits, long resetTime) {
+            this.allowed = allowed;
+            this.usedCredits = usedCredits;
+            this.resetTime = resetTime;
+        }
+
+        public boolean isAllowed() {
+            return allowed;
+        }
+
+        // Credits in use after this decision (including this request's cost when allowed)
+        public long getUsedCredits() {
+            return usedCredits;
+        }
+
+        public long getResetTime() {
+            return resetTime;
+        }
+    }
+}
@@ -1,24 +1,39 @@
 package com.example.ratelimiter;
 
-import redis.clients.jedis.Jedis;
-import redis.clients.jedis.params.ZAddParams;
-
 import javax.servlet.http.HttpServletResponse;
-import java.time.Instant;
 import java.util.Map;
 import java.util.concurrent.ConcurrentHashMap;
 
 public class RateLimiter {
 
-    private static final String REDIS_HOST = "localhost";
-    private static final int REDIS_PORT = 6379;
     private static final long DEFAULT_WINDOW_SECONDS =  24 * 60 * 60;
 
-    private final Jedis jedis;
+    // What to do with a request when the backend fails or its circuit breaker is open:
+    // admit it, refuse it, or decide it with a per-node approximation of the limit
+    public enum FailMode { OPEN, CLOSED, LOCAL }
+
+    private final RateLimitBackend backend;
+    private final CircuitBreaker breaker;
+    private final LocalRateLimitBackend fallback = new LocalRateLimitBackend();
     private final Map<String, EndpointConfig> endpointConfigs;
+    private final RateLimiterMetrics metrics = new RateLimiterMetrics();
 
+    // Redis-backed, shared by every node talking to the same Redis
     public RateLimiter() {
-        this.jedis = new Jedis(REDIS_HOST, REDIS_PORT);
+        this(new RedisRateLimitBackend());
+    }
+
+    // e.g. new RateLimiter(new LocalRateLimitBackend()) for per-node limits without Redis, or
+    // new RateLimiter(new LeasedRateLimitBackend(redis, 100, 10, 5000)) for global limits that
+    // only go to Redis once per leased batch of credits
+    public RateLimiter(RateLimitBackend backend) {
+        // Five failed or >100ms calls in a row stop backend calls for 5s
+        this(backend, new CircuitBreaker(5, 100, 5000));
+    }
+
+    public RateLimiter(RateLimitBackend backend, CircuitBreaker breaker) {
+        this.backend = backend;
+        this.breaker = breaker;
         this.endpointConfigs = new ConcurrentHashMap<>();
     }
 
@@ -27,51 +42,61 @@ public class RateLimiter {
     }
 
     public void configure(String endpoint, int maxCredits, long windowSeconds, int creditCost) {
-        endpointConfigs.put(endpoint, new EndpointConfig(maxCredits, windowSeconds, creditCost));
+        configure(endpoint, maxCredits, windowSeconds, creditCost, FailMode.LOCAL);
     }
 
-    public boolean allow(String endpoint, String userId, HttpServletResponse response) {
-        EndpointConfig config = endpointConfigs.get(endpoint);
-        if (config == null) throw new IllegalArgumentException("Endpoint not configured");
+    public void configure(String endpoint, int maxCredits, long windowSeconds, int creditCost, FailMode failMode) {
+        endpointConfigs.put(endpoint, new EndpointConfig(maxCredits, windowSeconds, creditCost, failMode,
+                metrics.endpoint(endpoint)));
+    }
 
-        String redisKey = "api_credits:" + endpoint + ":" + userId;
-        String resetKey = "reset_time:" + endpoint + ":" + userId;
+    public CircuitBreaker getCircuitBreaker() {
+        return breaker;
+    }
 
-        long currentTime = Instant.now().getEpochSecond();
-        long windowStartTime = currentTime - config.windowSeconds;
+    public RateLimiterMetrics getMetrics() {
+        return metrics;
+    }
 
-        refreshDailyCredits(resetKey, redisKey, config, currentTime);
+    public boolean allow(String endpoint, String userId, HttpServletResponse response) {
+        EndpointConfig config = endpointConfigs.get(endpoint);
+        if (config == null) throw new IllegalArgumentException("Endpoint not configured");
 
-        jedis.zremrangeByScore(redisKey, 0, windowStartTime);
-        long usedCredits = jedis.zcard(redisKey);
+        long start = System.nanoTime();
+        RateLimitBackend.Decision decision = decide(endpoint, userId, config, start);
+        config.metrics.record(decision.isAllowed(), userId, System.nanoTime() - start);
 
-        if (usedCredits + config.creditCost > config.maxCredits) {
-            setRateLimitHeaders(response, config.maxCredits, usedCredits, windowStartTime + config.windowSeconds);
+        setRateLimitHeaders(response, config.maxCredits, decision.getUsedCredits(), decision.getResetTime());
+        if (!decision.isAllowed()) {
             response.setStatus(429);
             return false;
         }
-
-        for (int i = 0; i < config.creditCost; i++) {
-            jedis.zadd(redisKey, currentTime, currentTime + "-" + i, ZAddParams.zAddParams().nx());
-        }
-
-        jedis.expire(redisKey, (int) config.windowSeconds);
-        setRateLimitHeaders(response, config.maxCredits, usedCredits + config.creditCost, windowStartTime + config.windowSeconds);
         return true;
     }
 
-    private void refreshDailyCredits(String resetKey, String redisKey, EndpointConfig config, long currentTime) {
-        String lastResetTimeStr = jedis.get(resetKey);
-
-        if (lastResetTimeStr == null || isNextDay(Long.parseLong(lastResetTimeStr), currentTime)) {
-            jedis.del(redisKey);
-            jedis.set(resetKey, String.valueOf(currentTime));
+    private RateLimitBackend.Decision decide(String endpoint, String userId, EndpointConfig config, long start) {
+        long now = System.currentTimeMillis();
+        if (breaker.tryAcquire()) {
+            try {
+                RateLimitBackend.Decision decision = backend.acquire(endpoint, userId, config.maxCredits,
+                        config.windowSeconds, config.creditCost, now);
+                breaker.onSuccess(System.nanoTime() - start);
+                return decision;
+            } catch (RuntimeException e) {
+                breaker.onFailure();
+                metrics.recordBackendError();
+            }
         }
-    }
 
-    private boolean isNextDay(long lastResetTime, long currentTime) {
-        long oneDayInSeconds = 24 * 60 * 60;
-        return currentTime - lastResetTime >= oneDayInSeconds;
+        metrics.recordFallback();
+        switch (config.failMode) {
+            case OPEN:
+                return new RateLimitBackend.Decision(true, 0, now / 1000);
+            case CLOSED:
+                return new RateLimitBackend.Decision(false, config.maxCredits, now / 1000);
+            default:
+                return fallback.acquire(endpoint, userId, config.maxCredits, config.windowSeconds, config.creditCost, now);
+        }
     }
 
     private void setRateLimitHeaders(HttpServletResponse response, int maxCredits, long usedCredits, long resetTime) {
@@ -84,11 +109,16 @@ public class RateLimiter {
         private final int maxCredits;
         private final long windowSeconds;
         private final int creditCost;
+        private final FailMode failMode;
+        private final RateLimiterMetrics.EndpointMetrics metrics;
 
-        public EndpointConfig(int maxCredits, long windowSeconds, int creditCost) {
+        public EndpointConfig(int maxCredits, long windowSeconds, int creditCost, FailMode failMode,
+                              RateLimiterMetrics.EndpointMetrics metrics) {
             this.maxCredits = maxCredits;
             this.windowSeconds = windowSeconds;
             this.creditCost = creditCost;
+            this.failMode = failMode;
+            this.metrics = metrics;
         }
     }
 }
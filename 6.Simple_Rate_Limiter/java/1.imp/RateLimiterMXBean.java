@@ -0,0 +1,24 @@
+package com.example.ratelimiter;
+
+import java.util.Map;
+
+// JMX view of RateLimiterMetrics; per-endpoint values are keyed by endpoint
+public interface RateLimiterMXBean {
+
+    Map<String, Long> getAllowedCounts();
+
+    Map<String, Long> getDeniedCounts();
+
+    // "count=... mean=... p50=... p99=... p99.9=..." in microseconds
+    Map<String, String> getDecisionLatency();
+
+    long getBackendErrorCount();
+
+    long getFallbackCount();
+
+    // Most throttled userIds, most throttled first, as "userId=count"
+    Map<String, String> getTopThrottledUsers();
+
+    // Throttled userIds left out of the top-K because its ring overflowed
+    Map<String, Long> getDroppedThrottledUserCounts();
+}
@@ -0,0 +1,123 @@
+package com.example.ratelimiter;
+
+import java.lang.management.ManagementFactory;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+// Counters and latency histograms for RateLimiter, readable through the getters (pull) or
+// over JMX once register() has been called.
+//
+// Recording is cheap and lock-free: each endpoint's metrics hang off its EndpointConfig, so
+// allow() never looks them up, counters are LongAdders, latencies go into an AtomicHistogram,
+// and throttled userIds are only handed to a HeavyHitters ring. Everything that takes longer
+// (summing, percentiles, the top-K) happens when somebody reads, or for the top-K on
+// HeavyHitters' background drainer.
+public class RateLimiterMetrics implements RateLimiterMXBean {
+
+    private static final int TOP_K = 20;
+    private static final int HITTER_RING_CAPACITY = 8192;
+
+    private final Map<String, EndpointMetrics> endpoints = new ConcurrentHashMap<>();
+    private final LongAdder backendErrors = new LongAdder();
+    private final LongAdder fallbacks = new LongAdder();
+
+    EndpointMetrics endpoint(String endpoint) {
+        return endpoints.computeIfAbsent(endpoint, e -> new EndpointMetrics());
+    }
+
+    void recordBackendError() {
+        backendErrors.increment();
+    }
+
+    void recordFallback() {
+        fallbacks.increment();
+    }
+
+    // Registers under e.g. "com.example.ratelimiter:type=RateLimiter,name=api"
+    public void register(String name) {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(this,
+                    new ObjectName("com.example.ratelimiter:type=RateLimiter,name=" + ObjectName.quote(name)));
+        } catch (JMException e) {
+            throw new IllegalStateException("Could not register rate limiter metrics as " + name, e);
+        }
+    }
+
+    @Override
+    public Map<String, Long> getAllowedCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> counts.put(endpoint, metrics.allowed.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, Long> getDeniedCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> counts.put(endpoint, metrics.denied.sum()));
+        return counts;
+    }
+
+    @Override
+    public Map<String, String> getDecisionLatency() {
+        Map<String, String> summaries = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> summaries.put(endpoint, metrics.latencySummary()));
+        return summaries;
+    }
+
+    @Override
+    public long getBackendErrorCount() {
+        return backendErrors.sum();
+    }
+
+    @Override
+    public long getFallbackCount() {
+        return fallbacks.sum();
+    }
+
+    @Override
+    public Map<String, String> getTopThrottledUsers() {
+        Map<String, String> top = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> top.put(endpoint, metrics.throttled.top().toString()));
+        return top;
+    }
+
+    @Override
+    public Map<String, Long> getDroppedThrottledUserCounts() {
+        Map<String, Long> counts = new TreeMap<>();
+        endpoints.forEach((endpoint, metrics) -> counts.put(endpoint, metrics.throttled.droppedCount()));
+        return counts;
+    }
+
+    public List<HeavyHitters.Entry> topThrottledUsers(String endpoint) {
+        EndpointMetrics metrics = endpoints.get(endpoint);
+        return metrics == null ? List.of() : metrics.throttled.top();
+    }
+
+    static final class EndpointMetrics {
+        private final LongAdder allowed = new LongAdder();
+        private final LongAdder denied = new LongAdder();
+        private final AtomicHistogram latencyNanos = new AtomicHistogram();
+        private final HeavyHitters throttled = new HeavyHitters(TOP_K, HITTER_RING_CAPACITY);
+
+        void record(boolean allow, String userId, long elapsedNanos) {
+            latencyNanos.record(elapsedNanos);
+            if (allow) {
+                allowed.increment();
+            } else {
+                denied.increment();
+                throttled.offer(userId);
+            }
+        }
+
+        String latencySummary() {
+            return String.format("count=%d mean=%.1fus p50=%.1fus p99=%.1fus p99.9=%.1fus",
+                    latencyNanos.count(), latencyNanos.mean() / 1e3, latencyNanos.percentile(50) / 1e3,
+                    latencyNanos.percentile(99) / 1e3, latencyNanos.percentile(99.9) / 1e3);
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.example.ratelimiter;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisNoScriptException;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.util.Arrays;
+import java.util.List;
+
+// Sliding-window log in a Redis sorted set, shared across nodes.
+//
+// The whole decision (daily refresh, trimming expired entries, counting, charging) runs as one
+// Lua script, so it is atomic on the server and costs a single round-trip. A request is one
+// member "time:seq:cost" scored by its timestamp rather than creditCost separate members, and
+// the running total lives next to it in a hash ("used", plus "seq" for unique members and
+// "reset" for the daily refresh), so counting never walks the set. Only entries that expire
+// are read back, to subtract their cost.
+public class RedisRateLimitBackend implements RateLimitBackend {
+
+    private static final String REDIS_HOST = "localhost";
+    private static final int REDIS_PORT = 6379;
+    private static final long RESET_PERIOD_SECONDS = 24 * 60 * 60;
+    private static final int DEFAULT_TIMEOUT_MILLIS = 50;
+    private static final int DEFAULT_POOL_SIZE = 64;
+
+    // KEYS: sorted set of charges, hash of counters
+    // ARGV: now (s), window (s), maxCredits, creditCost, reset period (s), member score (s, optional)
+    // Returns {allowed (1/0), credits used after the decision}. A negative creditCost is a
+    // refund; it is scored at the time of the charge it gives back, so the two expire together,
+    // and is ignored if that charge has already left the window.
+    // Both keys expire together once the caller has been idle for a window. Every charge is a
+    // member of the set, so a missing set means nothing is in use, whatever the hash says.
+    static final String SCRIPT =
+            "local zkey, hkey = KEYS[1], KEYS[2]\n"
+            + "local now, window = tonumber(ARGV[1]), tonumber(ARGV[2])\n"
+            + "local max, cost, period = tonumber(ARGV[3]), tonumber(ARGV[4]), tonumber(ARGV[5])\n"
+            + "local score = tonumber(ARGV[6]) or now\n"
+            + "local reset = tonumber(redis.call('HGET', hkey, 'reset'))\n"
+            + "if not reset or now - reset >= period then\n"
+            + "  redis.call('DEL', zkey)\n"
+            + "  redis.call('HSET', hkey, 'reset', now, 'used', 0)\n"
+            + "  reset = now\n"
+            + "end\n"
+            + "local used = 0\n"
+            + "if redis.call('EXISTS', zkey) == 1 then\n"
+            + "  used = tonumber(redis.call('HGET', hkey, 'used')) or 0\n"
+            + "end\n"
+            + "local expired = redis.call('ZRANGEBYSCORE', zkey, '-inf', now - window)\n"
+            + "if #expired > 0 then\n"
+            + "  for _, member in ipairs(expired) do\n"
+            + "    used = used - tonumber(string.match(member, ':(%-?%d+)$'))\n"
+            + "  end\n"
+            + "  redis.call('ZREMRANGEBYSCORE', zkey, '-inf', now - window)\n"
+            + "  if used < 0 then used = 0 end\n"
+            + "  redis.call('HSET', hkey, 'used', used)\n"
+            + "end\n"
+            + "if cost < 0 and (score <= now - window or score < reset) then\n"
+            + "  return {1, used}\n"
+            + "end\n"
+            + "if used + cost > max then\n"
+            + "  return {0, used}\n"
+            + "end\n"
+            + "local seq = redis.call('HINCRBY', hkey, 'seq', 1)\n"
+            + "redis.call('ZADD', zkey, score, score .. ':' .. seq .. ':' .. cost)\n"
+            + "used = used + cost\n"
+            + "redis.call('HSET', hkey, 'used', used)\n"
+            + "redis.call('EXPIRE', zkey, window)\n"
+            + "redis.call('EXPIRE', hkey, window)\n"
+            + "return {1, used}\n";
+
+    private static final String SCRIPT_SHA = sha1Hex(SCRIPT);
+
+    private final JedisPool pool;
+
+    public RedisRateLimitBackend() {
+        this(REDIS_HOST, REDIS_PORT, DEFAULT_TIMEOUT_MILLIS);
+    }
+
+    // timeoutMillis bounds connecting, each script call, and waiting for a pooled connection,
+    // so a slow Redis costs a caller at most about twice that before it sees an exception
+    public RedisRateLimitBackend(String host, int port, int timeoutMillis) {
+        this(new JedisPool(poolConfig(timeoutMillis), host, port, timeoutMillis));
+    }
+
+    public RedisRateLimitBackend(JedisPool pool) {
+        this.pool = pool;
+    }
+
+    @Override
+    public Decision acquire(String endpoint, String userId, int maxCredits, long windowSeconds, int creditCost, long nowMillis) {
+        return run(endpoint, userId, maxCredits, windowSeconds, creditCost, nowMillis, nowMillis);
+    }
+
+    // Gives back credits charged at chargedAtMillis that were never spent
+    public Decision refund(String endpoint, String userId, int maxCredits, long windowSeconds, int credits,
+                           long chargedAtMillis, long nowMillis) {
+        return run(endpoint, userId, maxCredits, windowSeconds, -credits, chargedAtMillis, nowMillis);
+    }
+
+    private Decision run(String endpoint, String userId, int maxCredits, long windowSeconds, int creditCost,
+                         long scoreMillis, long nowMillis) {
+        long currentTime = nowMillis / 1000;
+        List<String> keys = Arrays.asList("api_credits:" + endpoint + ":" + userId, "rate_meta:" + endpoint + ":" + userId);
+        List<String> args = Arrays.asList(String.valueOf(currentTime), String.valueOf(windowSeconds),
+                String.valueOf(maxCredits), String.valueOf(creditCost), String.valueOf(RESET_PERIOD_SECONDS),
+                String.valueOf(scoreMillis / 1000));
+
+        List<?> result;
+        try (Jedis jedis = pool.getResource()) {
+            result = (List<?>) evalScript(jedis, keys, args);
+        }
+        boolean allowed = ((Long) result.get(0)) == 1L;
+        long usedCredits = (Long) result.get(1);
+        return new Decision(allowed, usedCredits, currentTime);
+    }
+
+    private static JedisPoolConfig poolConfig(int timeoutMillis) {
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(DEFAULT_POOL_SIZE);
+        config.setMaxWait(Duration.ofMillis(timeoutMillis));
+        return config;
+    }
+
+    // EVALSHA with the digest computed locally; only the first call after a Redis restart (or
+    // SCRIPT FLUSH) pays for sending the script body, which EVAL also caches on the server.
+    private static Object evalScript(Jedis jedis, List<String> keys, List<String> args) {
+        try {
+            return jedis.evalsha(SCRIPT_SHA, keys, args);
+        } catch (JedisNoScriptException e) {
+            return jedis.eval(SCRIPT, keys, args);
+        }
+    }
+
+    private static String sha1Hex(String script) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-1").digest(script.getBytes(StandardCharsets.UTF_8));
+            StringBuilder hex = new StringBuilder(digest.length * 2);
+            for (byte b : digest) {
+                hex.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-1 is required of every JVM", e);
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.ratelimiter;
+
+import redis.clients.jedis.Jedis;
+import redis.clients.jedis.JedisPool;
+import redis.clients.jedis.JedisMonitor;
+import redis.clients.jedis.JedisPoolConfig;
+import redis.clients.jedis.exceptions.JedisConnectionException;
+import redis.embedded.RedisServer;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// Runs RedisRateLimitBackend's script against a real Redis, started from the embedded-redis
+// binaries on a spare port. Run with Jedis and com.github.codemonstur:embedded-redis on the
+// classpath: `java com.example.ratelimiter.RedisRateLimitBackendTest`; it exits non-zero on the
+// first failed check.
+public class RedisRateLimitBackendTest {
+    private static final int PORT = 16379;
+
+    public static void main(String[] args) throws Exception {
+        RedisServer server = new RedisServer(PORT);
+        server.start();
+        JedisPoolConfig config = new JedisPoolConfig();
+        config.setMaxTotal(64);
+        try (JedisPool pool = new JedisPool(config, "localhost", PORT, 2000);
+             Jedis admin = new Jedis("localhost", PORT)) {
+            RedisRateLimitBackend backend = new RedisRateLimitBackend(pool);
+            oneRoundTripPerDecision(backend, admin);
+            noOverAdmissionUnderConcurrency(backend);
+            idleCallerIsNotChargedAfterExpiry(backend, admin);
+            refundGivesCreditsBack(backend);
+            System.out.println("All checks passed");
+        } finally {
+            server.stop();
+        }
+    }
+
+    // Every decision, allowed or refused, is a single EVALSHA from the client. MONITOR shows
+    // each command the server runs; the ones a script runs are tagged "lua" and are not round
+    // trips.
+    private static void oneRoundTripPerDecision(RedisRateLimitBackend backend, Jedis admin) throws Exception {
+        backend.acquire("warmup", "u", 10, 60, 1, System.currentTimeMillis()); // loads the script
+        List<String> commands = new CopyOnWriteArrayList<>();
+        Jedis monitor = new Jedis("localhost", PORT);
+        Thread monitorThread = new Thread(() -> {
+            try {
+                monitor.monitor(new JedisMonitor() {
+                    @Override
+                    public void onCommand(String command) {
+                        commands.add(command);
+                    }
+                });
+            } catch (JedisConnectionException e) {
+                // closed below
+            }
+        });
+        monitorThread.start();
+        awaitMonitored(admin, commands, "start");
+
+        int decisions = 50;
+        for (int i = 0; i < decisions; i++) {
+            backend.acquire("trips", "u", 20, 60, 1, System.currentTimeMillis());
+        }
+        awaitMonitored(admin, commands, "end");
+        monitor.close();
+        monitorThread.join();
+
+        int roundTrips = 0;
+        for (String command : commands) {
+            if (command.contains(" lua]") || command.contains("\"ECHO\"")) continue;
+            check(command.contains("\"EVALSHA\""), "unexpected round trip: " + command);
+            roundTrips++;
+        }
+        check(roundTrips == decisions, "expected " + decisions + " round trips, got " + roundTrips);
+    }
+
+    // Echoes a marker until MONITOR has reported it, so everything sent before it was seen too
+    private static void awaitMonitored(Jedis admin, List<String> commands, String marker) throws InterruptedException {
+        while (true) {
+            admin.echo(marker);
+            for (String command : commands) {
+                if (command.contains("\"" + marker + "\"")) return;
+            }
+            Thread.sleep(10);
+        }
+    }
+
+    private static void noOverAdmissionUnderConcurrency(RedisRateLimitBackend backend) throws Exception {
+        int maxCredits = 100;
+        int threads = 32;
+        int attemptsPerThread = 20;
+        AtomicInteger allowed = new AtomicInteger();
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int i = 0; i < attemptsPerThread; i++) {
+                    if (backend.acquire("concurrent", "u", maxCredits, 60, 1, System.currentTimeMillis()).isAllowed()) {
+                        allowed.incrementAndGet();
+                    }
+                }
+                return null;
+            }));
+        }
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        pool.shutdown();
+        check(allowed.get() == maxCredits, "admitted " + allowed.get() + " of " + threads * attemptsPerThread
+                + " with a limit of " + maxCredits);
+        RateLimitBackend.Decision after = backend.acquire("concurrent", "u", maxCredits, 60, 1, System.currentTimeMillis());
+        check(!after.isAllowed() && after.getUsedCredits() == maxCredits, "used " + after.getUsedCredits() + " after the burst");
+    }
+
+    // Once both keys have expired, a caller who used everything starts again from zero instead
+    // of staying charged until the daily reset
+    private static void idleCallerIsNotChargedAfterExpiry(RedisRateLimitBackend backend, Jedis admin) throws Exception {
+        long window = 1;
+        for (int i = 0; i < 5; i++) {
+            backend.acquire("idle", "u", 5, window, 1, System.currentTimeMillis());
+        }
+        check(!backend.acquire("idle", "u", 5, window, 1, System.currentTimeMillis()).isAllowed(), "limit not reached");
+        Thread.sleep(2500);
+        check(!admin.exists("api_credits:idle:u") && !admin.exists("rate_meta:idle:u"), "keys outlived the window");
+        RateLimitBackend.Decision decision = backend.acquire("idle", "u", 5, window, 1, System.currentTimeMillis());
+        check(decision.isAllowed() && decision.getUsedCredits() == 1, "still charged " + decision.getUsedCredits() + " after idling");
+    }
+
+    private static void refundGivesCreditsBack(RedisRateLimitBackend backend) {
+        long charged = System.currentTimeMillis();
+        backend.acquire("refund", "u", 10, 60, 8, charged);
+        RateLimitBackend.Decision refunded = backend.refund("refund", "u", 10, 60, 5, charged, System.currentTimeMillis());
+        check(refunded.isAllowed() && refunded.getUsedCredits() == 3, "used " + refunded.getUsedCredits() + " after refund");
+        check(backend.acquire("refund", "u", 10, 60, 7, System.currentTimeMillis()).isAllowed(), "refunded credits not usable");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -0,0 +1,344 @@
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.ObjLongConsumer;
+
+// One dependency-driven execution of a job graph.
+//
+// Every job keeps a count of parents that have not finished yet. A job is released the moment
+// that count reaches zero (or straight away if it has no parents). Once released, it waits for
+// its own start time if that is still in the future, and then runs on a work-stealing pool.
+// Independent branches therefore run in parallel, and no job starts before its parents are
+// done. A periodic job releases its dependents after its first run. If a job fails, its
+// descendants are skipped; if it fails with an Error, the run's future also completes with it.
+//
+// Each job may also have a concurrency limit and belong to a group with a shared one. A run
+// that cannot get a slot in both never blocks a pool thread: depending on the job's
+// PeriodicPolicy it is either remembered and started when a slot frees up, or dropped. The
+// delay between when each run was due and when it actually started is recorded in JobStats.
+// Periodic runs missed while the scheduler was down (JobNode.missedRuns) are caught up on
+// release: FIXED_RATE owes the latest MAX_OWED_RUNS of them, COALESCE one, and SKIP_IF_RUNNING
+// drops them. A FIXED_RATE job never owes more than MAX_OWED_RUNS; later runs are skipped.
+//
+// When every job has finished or been skipped, the run reports its critical path: the chain of
+// jobs, each released by its last-finishing parent, that ends at the job finishing last.
+public class DagRun {
+    static final int MAX_OWED_RUNS = 100; // per job
+
+    private final Map<String, Node> nodes = new LinkedHashMap<>();
+    private final TimerService timer;
+    private final ExecutorService workers;
+    private final ObjLongConsumer<String> onCompleted; // job id and when the run was due, in epoch millis
+    private final AtomicInteger unfinished;
+    private final CompletableFuture<Report> done = new CompletableFuture<>();
+    private long startNanos;
+
+    public DagRun(List<JobNode> sortedJobs, Map<String, Job> jobs, Map<String, Integer> groupLimits,
+                  Map<String, JobStats> stats, TimerService timer, ExecutorService workers,
+                  ObjLongConsumer<String> onCompleted) {
+        this.timer = timer;
+        this.workers = workers;
+        this.onCompleted = onCompleted;
+        Map<String, Group> groups = new HashMap<>();
+        for (JobNode jobNode : sortedJobs) {
+            Group group = jobNode.group == null ? null : groups.computeIfAbsent(jobNode.group,
+                    g -> new Group(groupLimits.getOrDefault(g, Integer.MAX_VALUE)));
+            JobStats jobStats = stats.computeIfAbsent(jobNode.jobId, j -> new JobStats());
+            nodes.put(jobNode.jobId, new Node(jobNode, jobs.get(jobNode.jobId), group, jobStats));
+        }
+        for (Node node : nodes.values()) {
+            for (String dependency : node.jobNode.dependencies) {
+                nodes.get(dependency).children.add(node);
+            }
+        }
+        this.unfinished = new AtomicInteger(nodes.size());
+    }
+
+    public CompletableFuture<Report> start() {
+        startNanos = System.nanoTime();
+        if (nodes.isEmpty()) done.complete(new Report(0, Collections.emptyList()));
+        for (Node node : nodes.values()) {
+            if (node.pendingParents.get() == 0) release(node, null);
+        }
+        return done;
+    }
+
+    private void release(Node node, Node releasedBy) {
+        node.releasedBy = releasedBy;
+        long delay = Math.max(node.jobNode.executionTime - System.currentTimeMillis(), 0);
+        long firstDue = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+        if (node.jobNode.missedRuns > 0) catchUp(node, firstDue);
+        if (!node.jobNode.isPeriodic || node.jobNode.policy == PeriodicPolicy.FIXED_DELAY) {
+            scheduleOnce(node, firstDue);
+            return;
+        }
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(node.jobNode.period);
+        long[] due = {firstDue}; // the timer thread is the only one to touch it
+        timer.scheduleAtFixedRate(() -> {
+            onDue(node, due[0]);
+            due[0] += periodNanos;
+        }, delay, node.jobNode.period);
+    }
+
+    // The missed runs were due one period apart, ending one period before firstDue
+    private void catchUp(Node node, long firstDue) {
+        int missed = node.jobNode.missedRuns;
+        long periodNanos = TimeUnit.MILLISECONDS.toNanos(node.jobNode.period);
+        switch (node.jobNode.policy) {
+            case FIXED_RATE:
+                int owed = Math.min(missed, MAX_OWED_RUNS);
+                synchronized (node.owed) {
+                    for (int i = owed; i > 0; i--) node.owed.add(firstDue - i * periodNanos);
+                }
+                node.stats.skipped.add(missed - owed);
+                break;
+            case COALESCE:
+                synchronized (node.owed) {
+                    node.owed.add(firstDue - missed * periodNanos);
+                }
+                node.stats.coalesced.add(missed - 1);
+                break;
+            default:
+                node.stats.skipped.add(missed);
+                return;
+        }
+        startOwed(node);
+    }
+
+    private void scheduleOnce(Node node, long dueNanos) {
+        long delayMillis = TimeUnit.NANOSECONDS.toMillis(Math.max(dueNanos - System.nanoTime(), 0));
+        if (delayMillis == 0) {
+            onDue(node, dueNanos);
+        } else {
+            timer.schedule(() -> onDue(node, dueNanos), delayMillis);
+        }
+    }
+
+    // A run has come due; the policy decides whether it starts, waits for a slot or is dropped
+    private void onDue(Node node, long dueNanos) {
+        switch (node.jobNode.policy) {
+            case SKIP_IF_RUNNING:
+                if (node.running.get() > 0 || !acquire(node, false)) {
+                    node.stats.skipped.increment();
+                    return;
+                }
+                start(node, dueNanos);
+                return;
+            case COALESCE:
+                synchronized (node.owed) {
+                    if (!node.owed.isEmpty()) {
+                        node.stats.coalesced.increment(); // the run already owed covers this one
+                        return;
+                    }
+                    node.owed.add(dueNanos);
+                }
+                break;
+            default:
+                synchronized (node.owed) {
+                    if (node.owed.size() >= MAX_OWED_RUNS) {
+                        node.stats.skipped.increment(); // too far behind to ever catch up
+                        return;
+                    }
+                    node.owed.add(dueNanos);
+                }
+        }
+        startOwed(node);
+    }
+
+    // Starts as many owed runs as the job's and group's limits allow
+    private void startOwed(Node node) {
+        while (true) {
+            synchronized (node.owed) {
+                if (node.owed.isEmpty()) return;
+            }
+            if (!acquire(node, true)) return;
+            Long due;
+            synchronized (node.owed) {
+                due = node.owed.poll();
+            }
+            if (due == null) {
+                releasePermits(node);
+                return;
+            }
+            start(node, due);
+        }
+    }
+
+    // Takes a slot from the job's limit and then its group's; if the group is full and the
+    // caller wants to wait, the job is queued to be retried when a group slot frees up
+    private boolean acquire(Node node, boolean waitForGroup) {
+        if (!node.permits.tryAcquire()) return false;
+        if (node.group == null || node.group.permits.tryAcquire()) return true;
+        node.permits.release();
+        if (waitForGroup) {
+            node.group.waiting.add(node);
+            // A slot may have freed up between the failed tryAcquire and joining the queue
+            if (node.group.permits.availablePermits() > 0) wakeGroup(node.group);
+        }
+        return false;
+    }
+
+    private void releasePermits(Node node) {
+        node.permits.release();
+        if (node.group != null) {
+            node.group.permits.release();
+            wakeGroup(node.group);
+        }
+    }
+
+    private void wakeGroup(Group group) {
+        Node waiting;
+        while (group.permits.availablePermits() > 0 && (waiting = group.waiting.poll()) != null) {
+            startOwed(waiting);
+        }
+    }
+
+    private void start(Node node, long dueNanos) {
+        node.running.incrementAndGet();
+        workers.execute(() -> run(node, dueNanos));
+    }
+
+    private void run(Node node, long dueNanos) {
+        long start = System.nanoTime();
+        long dueMillis = System.currentTimeMillis() - TimeUnit.NANOSECONDS.toMillis(start - dueNanos);
+        node.stats.recordStartLag(start - dueNanos);
+        Throwable failure = null;
+        try {
+            node.job.execute();
+        } catch (Throwable e) {
+            // Errors too: without the accounting below the run would never finish
+            System.err.println("Job " + node.jobNode.jobId + " failed: " + e);
+            failure = e;
+        } finally {
+            node.running.decrementAndGet();
+            releasePermits(node);
+        }
+        boolean failed = failure != null;
+        if (!failed) onCompleted.accept(node.jobNode.jobId, dueMillis);
+        if (failure instanceof Error) done.completeExceptionally(failure);
+        if (node.jobNode.isPeriodic && node.jobNode.policy == PeriodicPolicy.FIXED_DELAY) {
+            scheduleOnce(node, System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(node.jobNode.period));
+        }
+        startOwed(node);
+
+        if (!node.finished.compareAndSet(false, true)) return; // later runs of a periodic job
+        node.startNanos = start;
+        node.endNanos = System.nanoTime();
+        if (failed) {
+            skipDescendants(node);
+        } else {
+            for (Node child : node.children) {
+                if (child.pendingParents.decrementAndGet() == 0) release(child, node);
+            }
+        }
+        finish();
+    }
+
+    private void skipDescendants(Node failed) {
+        for (Node child : failed.children) {
+            // Only the first path to reach a child skips it
+            if (child.pendingParents.getAndSet(-1) >= 0) {
+                System.err.println("Skipping " + child.jobNode.jobId + ": " + failed.jobNode.jobId + " failed");
+                child.finished.set(true);
+                skipDescendants(child);
+                finish();
+            }
+        }
+    }
+
+    private void finish() {
+        if (unfinished.decrementAndGet() == 0) {
+            done.complete(criticalPath());
+        }
+    }
+
+    // The path ends at the job that finished last; each step back goes to the parent that
+    // released it, which is the parent that finished last
+    private Report criticalPath() {
+        Node last = null;
+        for (Node node : nodes.values()) {
+            if (node.endNanos != 0 && (last == null || node.endNanos > last.endNanos)) last = node;
+        }
+        LinkedList<Step> path = new LinkedList<>();
+        for (Node node = last; node != null; node = node.releasedBy) {
+            long readyNanos = node.releasedBy == null ? startNanos : node.releasedBy.endNanos;
+            path.addFirst(new Step(node.jobNode.jobId, node.startNanos - readyNanos, node.endNanos - node.startNanos));
+        }
+        return new Report(last == null ? 0 : last.endNanos - startNanos, path);
+    }
+
+    private static class Node {
+        final JobNode jobNode;
+        final Job job;
+        final Group group;
+        final JobStats stats;
+        final Semaphore permits;
+        final Deque<Long> owed = new ArrayDeque<>(); // due times of runs waiting for a slot; guarded by itself
+        final AtomicInteger running = new AtomicInteger();
+        final List<Node> children = new ArrayList<>();
+        final AtomicInteger pendingParents;
+        final AtomicBoolean finished = new AtomicBoolean();
+        volatile Node releasedBy;
+        volatile long startNanos;
+        volatile long endNanos;
+
+        Node(JobNode jobNode, Job job, Group group, JobStats stats) {
+            this.jobNode = jobNode;
+            this.job = job;
+            this.group = group;
+            this.stats = stats;
+            // FIXED_DELAY never overlaps with itself by definition
+            this.permits = new Semaphore(jobNode.policy == PeriodicPolicy.FIXED_DELAY ? 1 : jobNode.maxConcurrency);
+            this.pendingParents = new AtomicInteger(jobNode.dependencies.size());
+        }
+    }
+
+    // Concurrency limit shared by every job in a group, with the jobs waiting for a slot
+    private static class Group {
+        final Semaphore permits;
+        final Queue<Node> waiting = new ConcurrentLinkedQueue<>();
+
+        Group(int maxConcurrency) {
+            this.permits = new Semaphore(maxConcurrency);
+        }
+    }
+
+    // One job on the critical path: time from its last parent finishing (or the run starting)
+    // to it starting, which covers its scheduled delay and queueing, and its own run time
+    public static class Step {
+        final String jobId;
+        final long waitNanos;
+        final long runNanos;
+
+        Step(String jobId, long waitNanos, long runNanos) {
+            this.jobId = jobId;
+            this.waitNanos = waitNanos;
+            this.runNanos = runNanos;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s (waited %.1fms, ran %.1fms)", jobId, waitNanos / 1e6, runNanos / 1e6);
+        }
+    }
+
+    public static class Report {
+        final long totalNanos;
+        final List<Step> criticalPath;
+
+        Report(long totalNanos, List<Step> criticalPath) {
+            this.totalNanos = totalNanos;
+            this.criticalPath = criticalPath;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder report = new StringBuilder(String.format("Run finished in %.1fms, critical path:", totalNanos / 1e6));
+            for (Step step : criticalPath) {
+                report.append("\n  ").append(step);
+            }
+            return report.toString();
+        }
+    }
+}
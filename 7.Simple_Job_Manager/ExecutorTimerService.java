@@ -0,0 +1,32 @@
+import java.util.concurrent.*;
+
+// TimerService over a ScheduledExecutorService: a binary heap under one lock, so scheduling
+// and cancelling cost O(log n) each and contend with every other timer operation.
+public class ExecutorTimerService implements TimerService {
+    private final ScheduledExecutorService executorService;
+
+    public ExecutorTimerService() {
+        this(Executors.newScheduledThreadPool(1));
+    }
+
+    public ExecutorTimerService(ScheduledExecutorService executorService) {
+        this.executorService = executorService;
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delayMillis) {
+        ScheduledFuture<?> future = executorService.schedule(task, delayMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Override
+    public Timeout scheduleAtFixedRate(Runnable task, long delayMillis, long periodMillis) {
+        ScheduledFuture<?> future = executorService.scheduleAtFixedRate(task, delayMillis, periodMillis, TimeUnit.MILLISECONDS);
+        return () -> future.cancel(false);
+    }
+
+    @Override
+    public void shutdown() {
+        executorService.shutdown();
+    }
+}
@@ -0,0 +1,216 @@
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+// Hierarchical timing wheel: O(1) schedule and cancel for any number of pending timers.
+//
+// Time is counted in ticks. LEVELS wheels of SLOTS slots each cover successively coarser
+// ranges: level 0 holds timers due within SLOTS ticks, one slot per tick; level 1 holds those
+// due within SLOTS^2 ticks, one slot per SLOTS ticks; and so on, 2^32 ticks in all (~50 days
+// at 1ms). Every SLOTS ticks the next slot of level 1 is emptied into the finer wheels
+// ("cascading"), and likewise further up, so a timer is moved at most LEVELS - 1 times before
+// it fires. Slots are intrusive doubly-linked lists.
+//
+// Only the wheel thread touches the slots. schedule() and cancel() from other threads just
+// enqueue the timer on a lock-free queue; the wheel thread drains both queues once per tick,
+// so bursts of scheduling are batched and never contend with expiry. On each wakeup the
+// thread catches up on every tick that has elapsed, then parks until the next one.
+public class HierarchicalTimingWheel implements TimerService {
+    private static final int SLOT_BITS = 8;
+    private static final int SLOTS = 1 << SLOT_BITS;
+    private static final int SLOT_MASK = SLOTS - 1;
+    private static final int LEVELS = 4;
+    private static final long MAX_SPAN_TICKS = 1L << (SLOT_BITS * LEVELS);
+
+    private static final int PENDING = 0;
+    private static final int CANCELLED = 1;
+    private static final int EXPIRED = 2;
+
+    private final long tickNanos;
+    private final long startNanos;
+    private final Entry[][] wheels = new Entry[LEVELS][SLOTS]; // heads of the slot lists
+    private final ConcurrentLinkedQueue<Entry> added = new ConcurrentLinkedQueue<>();
+    private final ConcurrentLinkedQueue<Entry> cancelled = new ConcurrentLinkedQueue<>();
+    private final Thread worker;
+    private long currentTick;                                  // last tick processed
+    private volatile boolean running = true;
+
+    public HierarchicalTimingWheel() {
+        this(1, TimeUnit.MILLISECONDS);
+    }
+
+    public HierarchicalTimingWheel(long tickDuration, TimeUnit unit) {
+        this.tickNanos = unit.toNanos(tickDuration);
+        this.startNanos = System.nanoTime();
+        this.worker = new Thread(this::run, "timing-wheel");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    @Override
+    public Timeout schedule(Runnable task, long delayMillis) {
+        return add(task, delayMillis, 0);
+    }
+
+    @Override
+    public Timeout scheduleAtFixedRate(Runnable task, long delayMillis, long periodMillis) {
+        if (periodMillis <= 0) throw new IllegalArgumentException("Period must be positive: " + periodMillis);
+        return add(task, delayMillis, TimeUnit.MILLISECONDS.toNanos(periodMillis));
+    }
+
+    @Override
+    public void shutdown() {
+        running = false;
+        LockSupport.unpark(worker);
+    }
+
+    private Entry add(Runnable task, long delayMillis, long periodNanos) {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(Math.max(delayMillis, 0));
+        Entry entry = new Entry(task, deadline, periodNanos);
+        added.add(entry);
+        return entry;
+    }
+
+    private void run() {
+        while (running) {
+            long target = (System.nanoTime() - startNanos) / tickNanos;
+            while (currentTick < target) {
+                currentTick++;
+                processTick(currentTick);
+            }
+            drainQueues(currentTick + 1); // timers added since the last tick
+            long nextTickNanos = startNanos + (currentTick + 1) * tickNanos;
+            LockSupport.parkNanos(nextTickNanos - System.nanoTime());
+        }
+    }
+
+    private void drainQueues(long earliestTick) {
+        Entry entry;
+        while ((entry = cancelled.poll()) != null) {
+            unlink(entry);
+        }
+        while ((entry = added.poll()) != null) {
+            if (entry.state.get() == PENDING) place(entry, earliestTick);
+        }
+    }
+
+    private void processTick(long tick) {
+        drainQueues(tick);
+        // Cascade coarse slots whose range starts at this tick, top level first, so timers
+        // that move down more than one level land in the right fine slot before it is read
+        for (int level = LEVELS - 1; level > 0; level--) {
+            long unit = 1L << (SLOT_BITS * level);
+            if ((tick & (unit - 1)) == 0) {
+                int slot = (int) ((tick >>> (SLOT_BITS * level)) & SLOT_MASK);
+                Entry entry = detachAll(level, slot);
+                while (entry != null) {
+                    Entry next = entry.next;
+                    entry.next = null;
+                    place(entry, tick);
+                    entry = next;
+                }
+            }
+        }
+        Entry entry = detachAll(0, (int) (tick & SLOT_MASK));
+        while (entry != null) {
+            Entry next = entry.next;
+            entry.next = null;
+            expire(entry);
+            entry = next;
+        }
+    }
+
+    private void expire(Entry entry) {
+        if (entry.periodNanos == 0) {
+            if (!entry.state.compareAndSet(PENDING, EXPIRED)) return;
+            run(entry);
+            return;
+        }
+        if (entry.state.get() != PENDING) return;
+        run(entry);
+        entry.deadlineNanos += entry.periodNanos; // from the due time, not the run time, so no drift
+        if (entry.state.get() == PENDING) place(entry, currentTick + 1);
+    }
+
+    private static void run(Entry entry) {
+        try {
+            entry.task.run();
+        } catch (RuntimeException e) {
+            System.err.println("Timer task failed: " + e);
+        }
+    }
+
+    // Links the entry into the slot for its deadline, or for earliestTick if it is already due
+    private void place(Entry entry, long earliestTick) {
+        long deadlineTick = Math.max(ticksFor(entry.deadlineNanos), earliestTick);
+        long delta = Math.min(deadlineTick - currentTick, MAX_SPAN_TICKS - 1);
+        long placedTick = currentTick + delta;
+        int level = 0;
+        while (delta >= 1L << (SLOT_BITS * (level + 1))) {
+            level++;
+        }
+        int slot = (int) ((placedTick >>> (SLOT_BITS * level)) & SLOT_MASK);
+        entry.level = level;
+        entry.slot = slot;
+        entry.prev = null;
+        entry.next = wheels[level][slot];
+        if (entry.next != null) entry.next.prev = entry;
+        wheels[level][slot] = entry;
+        entry.linked = true;
+    }
+
+    private long ticksFor(long deadlineNanos) {
+        // Round up so a timer never fires early
+        return Math.floorDiv(deadlineNanos - startNanos + tickNanos - 1, tickNanos);
+    }
+
+    private void unlink(Entry entry) {
+        if (!entry.linked) return;
+        if (entry.prev != null) {
+            entry.prev.next = entry.next;
+        } else {
+            wheels[entry.level][entry.slot] = entry.next;
+        }
+        if (entry.next != null) entry.next.prev = entry.prev;
+        entry.prev = null;
+        entry.next = null;
+        entry.linked = false;
+    }
+
+    private Entry detachAll(int level, int slot) {
+        Entry head = wheels[level][slot];
+        wheels[level][slot] = null;
+        for (Entry entry = head; entry != null; entry = entry.next) {
+            entry.prev = null;
+            entry.linked = false;
+        }
+        return head;
+    }
+
+    private final class Entry implements Timeout {
+        final Runnable task;
+        final long periodNanos; // 0 for one-shot timers
+        final AtomicInteger state = new AtomicInteger(PENDING);
+        long deadlineNanos;
+        // Owned by the wheel thread
+        int level;
+        int slot;
+        boolean linked;
+        Entry prev;
+        Entry next;
+
+        Entry(Runnable task, long deadlineNanos, long periodNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+            this.periodNanos = periodNanos;
+        }
+
+        @Override
+        public void cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                cancelled.add(this);
+            }
+        }
+    }
+}
@@ -0,0 +1,255 @@
+import java.util.*;
+
+// Job dependency graph kept in topological order as it changes, so nothing has to be re-sorted
+// before a run.
+//
+// Job ids are interned to small ints (freed ids are reused) and edges are stored both ways in
+// primitive int arrays. Every job has a position in a global order, with each dependency
+// positioned before its dependents; ord[] maps job to position and jobAt[] maps position to
+// job. A new job takes the next position after everything else, which is always valid because
+// its dependencies already exist. An edge added between existing jobs (addDependency) goes
+// through the Pearce-Kelly algorithm: if the dependency is already positioned earlier, nothing
+// moves. Otherwise only the jobs positioned between the two endpoints are searched, which both
+// detects a would-be cycle and reorders just that region. Removing a job leaves a hole in the
+// order, and the holes are compacted away once they outnumber the jobs.
+//
+// Not thread-safe on its own; JobScheduler guards it with its monitor.
+public class JobGraph {
+    private final Map<String, Integer> ids = new HashMap<>();
+    private JobNode[] nodes = new JobNode[16];
+    private int[][] out = new int[16][];   // dependents
+    private int[] outCount = new int[16];
+    private int[][] in = new int[16][];    // dependencies
+    private int[] inCount = new int[16];
+    private int[] ord = new int[16];
+    private int[] jobAt = new int[16];     // -1 where a removed job was
+    private int nextOrd;
+    private int[] freeIds = new int[16];
+    private int freeCount;
+    private int nextId;
+
+    // Pearce-Kelly scratch space, reused across calls
+    private boolean[] visited = new boolean[16];
+    private int[] stack = new int[16];
+    private int[] forward = new int[16];
+    private int[] backward = new int[16];
+
+    public int size() {
+        return ids.size();
+    }
+
+    public boolean contains(String jobId) {
+        return ids.containsKey(jobId);
+    }
+
+    // Every dependency must already be in the graph, so a new job can never close a cycle
+    public void add(String jobId, JobNode jobNode) {
+        if (ids.containsKey(jobId)) throw new IllegalArgumentException("Job already exists: " + jobId);
+        int[] dependencies = new int[jobNode.dependencies.size()];
+        for (int i = 0; i < dependencies.length; i++) {
+            Integer dependency = ids.get(jobNode.dependencies.get(i));
+            if (dependency == null) {
+                throw new IllegalArgumentException("Unknown dependency " + jobNode.dependencies.get(i) + " of " + jobId);
+            }
+            dependencies[i] = dependency;
+        }
+
+        int id = freeCount > 0 ? freeIds[--freeCount] : nextId++;
+        ensureIdCapacity(id + 1);
+        ids.put(jobId, id);
+        nodes[id] = jobNode;
+        outCount[id] = 0;
+        inCount[id] = 0;
+        if (nextOrd == jobAt.length) jobAt = Arrays.copyOf(jobAt, nextOrd * 2);
+        ord[id] = nextOrd;
+        jobAt[nextOrd++] = id;
+        for (int dependency : dependencies) {
+            link(dependency, id);
+        }
+    }
+
+    // jobId will also wait for dependsOn; refused if dependsOn (transitively) waits for jobId
+    public void addDependency(String jobId, String dependsOn) {
+        int job = idOf(jobId);
+        int dependency = idOf(dependsOn);
+        if (job == dependency) throw new IllegalArgumentException(jobId + " cannot depend on itself");
+        for (int i = 0; i < inCount[job]; i++) {
+            if (in[job][i] == dependency) return;
+        }
+        if (ord[dependency] > ord[job]) reorder(dependency, job, jobId, dependsOn);
+        link(dependency, job);
+        // Swapped for a copy rather than changed in place, since a run in progress may hold the old node
+        JobNode node = nodes[job];
+        List<String> dependencies = new ArrayList<>(node.dependencies);
+        dependencies.add(dependsOn);
+        nodes[job] = node.withDependencies(dependencies);
+    }
+
+    // Refused while other jobs still depend on it
+    public JobNode remove(String jobId) {
+        int id = idOf(jobId);
+        if (outCount[id] > 0) {
+            throw new IllegalStateException(jobId + " still has dependents, e.g. " + idName(out[id][0]));
+        }
+        for (int i = 0; i < inCount[id]; i++) {
+            unlink(out, outCount, in[id][i], id);
+        }
+        JobNode removed = nodes[id];
+        nodes[id] = null;
+        inCount[id] = 0;
+        jobAt[ord[id]] = -1;
+        ids.remove(jobId);
+        if (freeCount == freeIds.length) freeIds = Arrays.copyOf(freeIds, freeCount * 2);
+        freeIds[freeCount++] = id;
+        if (nextOrd > 16 && nextOrd > 2 * ids.size()) compact();
+        return removed;
+    }
+
+    // Dependencies before dependents, read straight off the maintained order
+    public List<JobNode> topologicalOrder() {
+        List<JobNode> sorted = new ArrayList<>(ids.size());
+        for (int position = 0; position < nextOrd; position++) {
+            if (jobAt[position] >= 0) sorted.add(nodes[jobAt[position]]);
+        }
+        return sorted;
+    }
+
+    // Pearce-Kelly: makes room for the edge dependency -> job when dependency is ordered after job
+    private void reorder(int dependency, int job, String jobId, String dependsOn) {
+        int lower = ord[job];
+        int upper = ord[dependency];
+        ensureScratch();
+
+        // Everything reachable from job without leaving the affected region must move after
+        // dependency; reaching dependency itself means the edge would close a cycle
+        int forwardCount = 0;
+        int top = 0;
+        stack[top++] = job;
+        visited[job] = true;
+        while (top > 0) {
+            int node = stack[--top];
+            forward[forwardCount++] = node;
+            for (int i = 0; i < outCount[node]; i++) {
+                int next = out[node][i];
+                if (next == dependency) {
+                    clearVisited(forward, forwardCount);
+                    while (top > 0) visited[stack[--top]] = false;
+                    throw new IllegalArgumentException("Dependency " + jobId + " -> " + dependsOn + " would create a cycle");
+                }
+                if (!visited[next] && ord[next] < upper) {
+                    visited[next] = true;
+                    stack[top++] = next;
+                }
+            }
+        }
+        // Everything that reaches dependency from inside the region must stay before job
+        int backwardCount = 0;
+        stack[top++] = dependency;
+        visited[dependency] = true;
+        while (top > 0) {
+            int node = stack[--top];
+            backward[backwardCount++] = node;
+            for (int i = 0; i < inCount[node]; i++) {
+                int previous = in[node][i];
+                if (!visited[previous] && ord[previous] > lower) {
+                    visited[previous] = true;
+                    stack[top++] = previous;
+                }
+            }
+        }
+        clearVisited(forward, forwardCount);
+        clearVisited(backward, backwardCount);
+
+        // Reuse the same positions: the backward set takes the lowest, in its existing relative
+        // order, and the forward set the rest
+        sortByOrd(backward, backwardCount);
+        sortByOrd(forward, forwardCount);
+        int[] positions = new int[backwardCount + forwardCount];
+        for (int i = 0; i < backwardCount; i++) positions[i] = ord[backward[i]];
+        for (int i = 0; i < forwardCount; i++) positions[backwardCount + i] = ord[forward[i]];
+        Arrays.sort(positions);
+        for (int i = 0; i < backwardCount; i++) place(backward[i], positions[i]);
+        for (int i = 0; i < forwardCount; i++) place(forward[i], positions[backwardCount + i]);
+    }
+
+    private void place(int id, int position) {
+        ord[id] = position;
+        jobAt[position] = id;
+    }
+
+    private void sortByOrd(int[] ids, int count) {
+        // Positions are unique, so sort them and map back through jobAt
+        for (int i = 0; i < count; i++) ids[i] = ord[ids[i]];
+        Arrays.sort(ids, 0, count);
+        for (int i = 0; i < count; i++) ids[i] = jobAt[ids[i]];
+    }
+
+    private void clearVisited(int[] ids, int count) {
+        for (int i = 0; i < count; i++) visited[ids[i]] = false;
+    }
+
+    private void compact() {
+        int position = 0;
+        for (int old = 0; old < nextOrd; old++) {
+            int id = jobAt[old];
+            if (id >= 0) place(id, position++);
+        }
+        Arrays.fill(jobAt, position, nextOrd, -1);
+        nextOrd = position;
+    }
+
+    private void link(int dependency, int job) {
+        out[dependency] = append(out[dependency], outCount[dependency]++, job);
+        in[job] = append(in[job], inCount[job]++, dependency);
+    }
+
+    // Swap-removes target from lists[owner]
+    private static void unlink(int[][] lists, int[] counts, int owner, int target) {
+        int[] list = lists[owner];
+        for (int i = 0; i < counts[owner]; i++) {
+            if (list[i] == target) {
+                list[i] = list[--counts[owner]];
+                return;
+            }
+        }
+    }
+
+    private static int[] append(int[] list, int index, int value) {
+        if (list == null) list = new int[4];
+        else if (index == list.length) list = Arrays.copyOf(list, index * 2);
+        list[index] = value;
+        return list;
+    }
+
+    private int idOf(String jobId) {
+        Integer id = ids.get(jobId);
+        if (id == null) throw new IllegalArgumentException("Unknown job: " + jobId);
+        return id;
+    }
+
+    private String idName(int id) {
+        for (Map.Entry<String, Integer> entry : ids.entrySet()) {
+            if (entry.getValue() == id) return entry.getKey();
+        }
+        return String.valueOf(id);
+    }
+
+    private void ensureIdCapacity(int capacity) {
+        if (capacity <= nodes.length) return;
+        int size = nodes.length * 2;
+        nodes = Arrays.copyOf(nodes, size);
+        out = Arrays.copyOf(out, size);
+        outCount = Arrays.copyOf(outCount, size);
+        in = Arrays.copyOf(in, size);
+        inCount = Arrays.copyOf(inCount, size);
+        ord = Arrays.copyOf(ord, size);
+    }
+
+    private void ensureScratch() {
+        if (visited.length >= nodes.length) return;
+        visited = new boolean[nodes.length];
+        stack = new int[nodes.length];
+        forward = new int[nodes.length];
+        backward = new int[nodes.length];
+    }
+}
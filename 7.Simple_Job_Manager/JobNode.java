@@ -1,17 +1,40 @@
 import java.util.*;
 
 public class JobNode {
+    String jobId;       // unique within a scheduler; the class name unless given explicitly
     String jobClassName;
     List<String> dependencies;
-    Long executionTime; 
+    Long executionTime;
     boolean isPeriodic;
     Long period;
+    PeriodicPolicy policy;
+    int maxConcurrency; // runs of this job allowed at once
+    String group;       // jobs sharing a group share its concurrency limit; null for none
+    int missedRuns;     // periodic runs that fell due while the scheduler was down, set by JobStore;
+                        // executionTime is then the next run still to come
 
     public JobNode(String jobClassName, List<String> dependencies, Long executionTime, boolean isPeriodic, Long period) {
+        this(jobClassName, jobClassName, dependencies, executionTime, isPeriodic, period, PeriodicPolicy.FIXED_RATE, 1, null);
+    }
+
+    public JobNode(String jobId, String jobClassName, List<String> dependencies, Long executionTime, boolean isPeriodic, Long period,
+                   PeriodicPolicy policy, int maxConcurrency, String group) {
+        this.jobId = jobId;
         this.jobClassName = jobClassName;
-        this.dependencies = dependencies != null ? dependencies : new ArrayList<>();
+        this.dependencies = dependencies != null ? new ArrayList<>(dependencies) : new ArrayList<>();
         this.executionTime = executionTime;
         this.isPeriodic = isPeriodic;
         this.period = period;
+        this.policy = policy;
+        this.maxConcurrency = maxConcurrency;
+        this.group = group;
+    }
+
+    // A copy waiting on dependencies instead, with everything else (missedRuns included) kept
+    JobNode withDependencies(List<String> dependencies) {
+        JobNode copy = new JobNode(jobId, jobClassName, dependencies, executionTime, isPeriodic, period, policy,
+                maxConcurrency, group);
+        copy.missedRuns = missedRuns;
+        return copy;
     }
-}
\ No newline at end of file
+}
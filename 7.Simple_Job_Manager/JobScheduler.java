@@ -4,80 +4,153 @@ import java.util.*;
 import java.util.concurrent.*;
 
 public class JobScheduler {
-    private final Map<String, JobNode> jobMap = new HashMap<>();
-    private final ScheduledExecutorService executorService = Executors.newScheduledThreadPool(5);
+    // Kept in dependency order as jobs come and go; guarded by this scheduler's monitor
+    private final JobGraph graph = new JobGraph();
+    private final Map<String, Integer> groupLimits = new ConcurrentHashMap<>();
+    private final Map<String, JobStats> stats = new ConcurrentHashMap<>();
+    // Only waits out start delays and periods; the jobs themselves run on the work-stealing pool
+    private final TimerService timer;
+    private final ExecutorService workers = new ForkJoinPool(Runtime.getRuntime().availableProcessors());
+    private final JobStore store; // null when jobs are kept in memory only
 
-    public void addJob(String jobClassName, List<String> dependencies, long delayMillis, boolean isPeriodic, long periodMillis) {
-        long executionTime = System.currentTimeMillis() + delayMillis;
-        jobMap.put(jobClassName, new JobNode(jobClassName, dependencies, executionTime, isPeriodic, periodMillis));
+    public JobScheduler() {
+        this(new ExecutorTimerService());
     }
 
-    // Resolve dependencies using Topological Sort
-    private List<JobNode> resolveDependencies() throws Exception {
-        Map<String, Integer> inDegree = new HashMap<>();
-        Map<String, List<String>> adjList = new HashMap<>();
-        
-        for (String job : jobMap.keySet()) {
-            inDegree.put(job, 0);
-            adjList.put(job, new ArrayList<>());
-        }
+    // e.g. new JobScheduler(new HierarchicalTimingWheel()) for hundreds of thousands of pending jobs
+    public JobScheduler(TimerService timer) {
+        this(timer, null);
+    }
 
-        // Build dependency graph
-        for (JobNode jobNode : jobMap.values()) {
-            for (String dep : jobNode.dependencies) {
-                adjList.get(dep).add(jobNode.jobClassName);
-                inDegree.put(jobNode.jobClassName, inDegree.get(jobNode.jobClassName) + 1);
-            }
-        }
+    // Persistent mode: takes back the jobs the store recovered, with missed periodic runs to catch
+    // up on the next executeJobs, and logs every change before the call making it returns
+    public JobScheduler(TimerService timer, JobStore store) {
+        this.timer = timer;
+        this.store = store;
+        if (store != null) restore(store.recoveredJobs(System.currentTimeMillis()));
+    }
 
-        Queue<String> queue = new LinkedList<>();
-        List<JobNode> sortedJobs = new ArrayList<>();
-        
-        for (Map.Entry<String, Integer> entry : inDegree.entrySet()) {
-            if (entry.getValue() == 0) queue.add(entry.getKey());
-        }
+    // The job's id is its class name; adding a second job of the same class needs the overload
+    // that takes an explicit id. Periodic runs never overlap, as with scheduleAtFixedRate.
+    public void addJob(String jobClassName, List<String> dependencies, long delayMillis, boolean isPeriodic, long periodMillis) {
+        addJob(jobClassName, jobClassName, dependencies, delayMillis, isPeriodic, periodMillis,
+                PeriodicPolicy.FIXED_RATE, 1, null);
+    }
 
-        while (!queue.isEmpty()) {
-            String job = queue.poll();
-            sortedJobs.add(jobMap.get(job));
+    // maxConcurrency caps overlapping runs of this job; group (may be null) puts it under a
+    // limit shared with other jobs, see setGroupLimit
+    public void addJob(String jobClassName, List<String> dependencies, long delayMillis, boolean isPeriodic, long periodMillis,
+                       PeriodicPolicy policy, int maxConcurrency, String group) {
+        addJob(jobClassName, jobClassName, dependencies, delayMillis, isPeriodic, periodMillis, policy, maxConcurrency, group);
+    }
 
-            for (String neighbor : adjList.get(job)) {
-                inDegree.put(neighbor, inDegree.get(neighbor) - 1);
-                if (inDegree.get(neighbor) == 0) queue.add(neighbor);
-            }
+    // Dependencies are job ids and must already have been added, so adding a job can never close a
+    // cycle; throws IllegalArgumentException if jobId is taken or a dependency is unknown
+    public void addJob(String jobId, String jobClassName, List<String> dependencies, long delayMillis, boolean isPeriodic,
+                       long periodMillis, PeriodicPolicy policy, int maxConcurrency, String group) {
+        long executionTime = System.currentTimeMillis() + delayMillis;
+        JobNode jobNode = new JobNode(jobId, jobClassName, dependencies, executionTime, isPeriodic, periodMillis,
+                policy, maxConcurrency, group);
+        long position;
+        synchronized (this) {
+            graph.add(jobId, jobNode);
+            if (store == null) return;
+            position = store.add(jobNode);
         }
+        // Outside the lock, so concurrent callers share one fsync
+        store.awaitDurable(position);
+    }
 
-        if (sortedJobs.size() != jobMap.size()) {
-            throw new Exception("Cycle detected in job dependencies!");
+    // Makes jobId also wait for dependsOn; throws IllegalArgumentException if that would create a cycle
+    public void addDependency(String jobId, String dependsOn) {
+        long position;
+        synchronized (this) {
+            graph.addDependency(jobId, dependsOn);
+            if (store == null) return;
+            position = store.addDependency(jobId, dependsOn);
         }
+        store.awaitDurable(position);
+    }
 
-        return sortedJobs;
+    // Throws IllegalStateException while other jobs still depend on jobId. Runs already started
+    // by executeJobs keep the job.
+    public void removeJob(String jobId) {
+        long position;
+        synchronized (this) {
+            graph.remove(jobId);
+            if (store == null) return;
+            position = store.cancel(jobId);
+        }
+        store.awaitDurable(position);
     }
 
-    public void executeJobs() throws Exception {
-        List<JobNode> sortedJobs = resolveDependencies();
-        long currentTime = System.currentTimeMillis();
+    // At most maxConcurrency runs of the group's jobs at once; takes effect on the next executeJobs
+    public void setGroupLimit(String group, int maxConcurrency) {
+        groupLimits.put(group, maxConcurrency);
+    }
 
+    public Map<String, JobStats> getStats() {
+        return Collections.unmodifiableMap(stats);
+    }
+
+    // Starts every job as soon as its dependencies have finished and its start time has come;
+    // the returned future completes with the run's critical path once every job has run once
+    public CompletableFuture<DagRun.Report> executeJobs() throws Exception {
+        List<JobNode> sortedJobs;
+        synchronized (this) {
+            // A snapshot: later changes to the graph only affect later runs
+            sortedJobs = graph.topologicalOrder();
+        }
+        Map<String, Job> jobs = new HashMap<>();
         for (JobNode jobNode : sortedJobs) {
-            long delay = Math.max(jobNode.executionTime - currentTime, 0);
-            Runnable jobTask = createJobTask(jobNode.jobClassName);
+            jobs.put(jobNode.jobId, createJob(jobNode.jobClassName));
+        }
+        return new DagRun(sortedJobs, jobs, groupLimits, stats, timer, workers,
+                store == null ? (jobId, dueMillis) -> { } : store::completed).start();
+    }
 
-            if (jobNode.isPeriodic) {
-                executorService.scheduleAtFixedRate(jobTask, delay, jobNode.period, TimeUnit.MILLISECONDS);
-            } else {
-                executorService.schedule(jobTask, delay, TimeUnit.MILLISECONDS);
+    // Recovered jobs come in the order they were added, but a dependency added later with
+    // addDependency may point forward, so each job's dependencies are added before it
+    private void restore(List<JobNode> recovered) {
+        Map<String, JobNode> byId = new HashMap<>();
+        for (JobNode jobNode : recovered) {
+            byId.put(jobNode.jobId, jobNode);
+        }
+        Deque<JobNode> pending = new ArrayDeque<>();
+        for (JobNode jobNode : recovered) {
+            pending.push(jobNode);
+            while (!pending.isEmpty()) {
+                JobNode top = pending.peek();
+                if (graph.contains(top.jobId)) {
+                    pending.pop();
+                    continue;
+                }
+                JobNode missing = null;
+                for (String dependency : top.dependencies) {
+                    if (!graph.contains(dependency)) {
+                        missing = byId.get(dependency);
+                        break;
+                    }
+                }
+                if (missing == null) {
+                    graph.add(top.jobId, top);
+                    pending.pop();
+                } else {
+                    pending.push(missing);
+                }
             }
         }
     }
 
-    private Runnable createJobTask(String jobClassName) throws Exception {
+    private Job createJob(String jobClassName) throws Exception {
         Class<?> clazz = Class.forName(jobClassName);
-        Constructor<?> constructor = clazz.getConstructor();
-        Job jobInstance = (Job) constructor.newInstance();
-        return jobInstance::execute;
+        Constructor<?> constructor = clazz.getDeclaredConstructor(); // job classes need not be public
+        return (Job) constructor.newInstance();
     }
 
     public void shutdown() {
-        executorService.shutdown();
+        timer.shutdown();
+        workers.shutdown();
+        if (store != null) store.close();
     }
-}
\ No newline at end of file
+}
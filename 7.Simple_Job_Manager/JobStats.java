@@ -0,0 +1,46 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+// Per-job counters: how late runs started relative to when they were due, and how many runs
+// the job's PeriodicPolicy dropped or merged. Updated from many threads without locking.
+public class JobStats {
+    final LongAdder runs = new LongAdder();
+    final LongAdder totalLagNanos = new LongAdder();
+    final AtomicLong maxLagNanos = new AtomicLong();
+    final LongAdder skipped = new LongAdder();
+    final LongAdder coalesced = new LongAdder();
+
+    void recordStartLag(long lagNanos) {
+        long lag = Math.max(lagNanos, 0);
+        runs.increment();
+        totalLagNanos.add(lag);
+        if (lag > maxLagNanos.get()) maxLagNanos.accumulateAndGet(lag, Math::max);
+    }
+
+    public long getRuns() {
+        return runs.sum();
+    }
+
+    public double getMeanStartLagMillis() {
+        long count = runs.sum();
+        return count == 0 ? 0 : totalLagNanos.sum() / 1e6 / count;
+    }
+
+    public double getMaxStartLagMillis() {
+        return maxLagNanos.get() / 1e6;
+    }
+
+    public long getSkipped() {
+        return skipped.sum();
+    }
+
+    public long getCoalesced() {
+        return coalesced.sum();
+    }
+
+    @Override
+    public String toString() {
+        return String.format("runs=%d startLag mean=%.1fms max=%.1fms skipped=%d coalesced=%d",
+                getRuns(), getMeanStartLagMillis(), getMaxStartLagMillis(), getSkipped(), getCoalesced());
+    }
+}
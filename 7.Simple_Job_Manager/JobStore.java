@@ -0,0 +1,627 @@
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.zip.CRC32C;
+
+// Durable copy of a scheduler's jobs, so pending and periodic jobs survive a restart.
+//
+// Every change (job added, dependency added, run completed, job cancelled) is appended as a
+// record to a write-ahead log made of fixed-size, memory-mapped segment files. Appending is a
+// copy into the mapping under a short lock. A single flusher thread forces the written range to
+// disk and wakes the writers it covered, so writers that arrive while a force is in progress
+// share the next one (group commit) instead of paying for an fsync each.
+//
+// Every snapshotEveryBytes of log, a background thread rolls to a new segment, writes the
+// current jobs to a snapshot file, renames it into place and deletes the segments it covers.
+// Recovery loads the newest snapshot and replays only the segments after it. A record whose
+// checksum does not match marks the torn end of the log; it and anything after it are
+// discarded.
+//
+// Completions are logged without waiting for the disk, so a crash can lose the last few and
+// those runs happen again: runs are at-least-once.
+//
+// Record layout: int payload length, int CRC32C of type and payload, byte type, payload.
+public class JobStore implements AutoCloseable {
+    private static final byte ADD = 1;
+    private static final byte DEPEND = 2;
+    private static final byte COMPLETE = 3;
+    private static final byte CANCEL = 4;
+    private static final byte JOB = 5;           // snapshot only: a job with its run history
+    private static final byte SNAPSHOT_END = 6;  // snapshot only: number of JOB records before it
+    private static final int HEADER = 9;
+    private static final PeriodicPolicy[] POLICIES = PeriodicPolicy.values();
+
+    private final Path dir;
+    private final int segmentBytes;
+    private final long snapshotEveryBytes;
+    private final Thread flusher;
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition unflushed = lock.newCondition();
+    private final Condition flushed = lock.newCondition();
+    // Everything below is guarded by lock
+    private final Map<String, StoredJob> jobs = new LinkedHashMap<>();
+    private final RecordBuffer record = new RecordBuffer();
+    private final CRC32C crc = new CRC32C();
+    private long segment;
+    private MappedByteBuffer log;
+    private long written;        // log position (segment * segmentBytes + offset) after the last record
+    private long durable;        // everything before this position has been forced to disk
+    private long sinceSnapshot;
+    private Thread snapshotter;
+    private boolean closed;
+    private RuntimeException failure; // from the flusher, rethrown to waiting writers
+    private long forces;
+
+    private long recoveryNanos;
+    private long replayedRecords;
+
+    public JobStore(Path dir) throws IOException {
+        this(dir, 64 << 20, 32 << 20);
+    }
+
+    public JobStore(Path dir, int segmentBytes, long snapshotEveryBytes) throws IOException {
+        this.dir = dir;
+        this.segmentBytes = segmentBytes;
+        this.snapshotEveryBytes = snapshotEveryBytes;
+        Files.createDirectories(dir);
+        recover();
+        this.flusher = new Thread(this::flushLoop, "job-store-flusher");
+        flusher.setDaemon(true);
+        flusher.start();
+    }
+
+    // Log positions returned by the methods below can be passed to awaitDurable
+
+    public long add(JobNode jobNode) {
+        lock.lock();
+        try {
+            record.clear();
+            putNode(record, jobNode);
+            apply(ADD, record.flip());
+            return append(ADD);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long addDependency(String jobId, String dependsOn) {
+        lock.lock();
+        try {
+            record.clear();
+            record.putString(jobId);
+            record.putString(dependsOn);
+            apply(DEPEND, record.flip());
+            return append(DEPEND);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // dueMillis is when the run was due, not when it started, so catch-up after a restart stays
+    // on the job's schedule
+    public long completed(String jobId, long dueMillis) {
+        lock.lock();
+        try {
+            if (closed) return written; // a run finishing during shutdown; it happens again on restart
+            record.clear();
+            record.putString(jobId);
+            record.buf.putLong(dueMillis);
+            apply(COMPLETE, record.flip());
+            return append(COMPLETE);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long cancel(String jobId) {
+        lock.lock();
+        try {
+            record.clear();
+            record.putString(jobId);
+            apply(CANCEL, record.flip());
+            return append(CANCEL);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Blocks until every record up to position is on disk
+    public void awaitDurable(long position) {
+        lock.lock();
+        try {
+            while (durable < position && failure == null) {
+                flushed.awaitUninterruptibly();
+            }
+            if (durable < position) throw failure;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // The stored jobs as the scheduler should take them back after a restart. One-shot jobs that
+    // completed are no longer stored, and dependencies on them or on periodic jobs that have run
+    // at least once are dropped, since their dependents were released then. A periodic job gets its next due time
+    // after nowMillis as executionTime and the runs it missed while the scheduler was down as
+    // missedRuns, which DagRun then handles according to the job's PeriodicPolicy.
+    public List<JobNode> recoveredJobs(long nowMillis) {
+        lock.lock();
+        try {
+            List<JobNode> recovered = new ArrayList<>(jobs.size());
+            for (StoredJob stored : jobs.values()) {
+                JobNode node = stored.node;
+                List<String> dependencies = new ArrayList<>(node.dependencies.size());
+                for (String dependency : node.dependencies) {
+                    StoredJob parent = jobs.get(dependency);
+                    if (parent != null && parent.lastDueMillis < 0) dependencies.add(dependency);
+                }
+                long executionTime = node.executionTime;
+                int missedRuns = 0;
+                if (node.isPeriodic && dependencies.isEmpty()) {
+                    long nextDue = stored.lastDueMillis < 0 ? executionTime : stored.lastDueMillis + node.period;
+                    if (node.policy == PeriodicPolicy.FIXED_DELAY) {
+                        // The delay counts from the end of a run, so a late job simply runs now
+                        executionTime = Math.max(nextDue, nowMillis);
+                    } else if (nextDue <= nowMillis) {
+                        long missed = (nowMillis - nextDue) / node.period + 1;
+                        missedRuns = (int) Math.min(missed, Integer.MAX_VALUE);
+                        executionTime = nextDue + missed * node.period;
+                    } else {
+                        executionTime = nextDue;
+                    }
+                }
+                JobNode copy = node.withDependencies(dependencies);
+                copy.executionTime = executionTime;
+                copy.missedRuns = missedRuns;
+                recovered.add(copy);
+            }
+            return recovered;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    public long getRecoveryNanos() {
+        return recoveryNanos;
+    }
+
+    public long getReplayedRecords() {
+        return replayedRecords;
+    }
+
+    // Number of forces the flusher has done, i.e. group commits
+    public long getForces() {
+        lock.lock();
+        try {
+            return forces;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    // Flushes what is left and stops the flusher; waits for a snapshot in progress
+    @Override
+    public void close() {
+        Thread snapshotting;
+        lock.lock();
+        try {
+            closed = true;
+            unflushed.signal();
+            snapshotting = snapshotter;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            flusher.join();
+            if (snapshotting != null) snapshotting.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // Copies the record's payload into the log; caller holds lock
+    private long append(byte type) {
+        if (closed) throw new IllegalStateException("JobStore is closed");
+        ByteBuffer payload = record.buf;
+        int length = payload.remaining();
+        if (HEADER + length > segmentBytes) throw new IllegalArgumentException("Record larger than a log segment");
+        int offset = (int) (written - segment * segmentBytes);
+        if (offset + HEADER + length > segmentBytes) {
+            roll();
+            offset = 0;
+        }
+        crc.reset();
+        crc.update(type);
+        crc.update(payload);
+        payload.flip();
+        log.putInt(offset, length);
+        log.putInt(offset + 4, (int) crc.getValue());
+        log.put(offset + 8, type);
+        log.put(offset + HEADER, payload, 0, length);
+        written += HEADER + length;
+        sinceSnapshot += HEADER + length;
+        unflushed.signal();
+        if (sinceSnapshot >= snapshotEveryBytes && snapshotter == null) {
+            snapshotter = new Thread(this::snapshot, "job-store-snapshot");
+            snapshotter.setDaemon(true);
+            snapshotter.start();
+        }
+        return written;
+    }
+
+    // Finishes the current segment and starts the next one; caller holds lock
+    private void roll() {
+        log.force();
+        durable = written;
+        flushed.signalAll();
+        try {
+            log = openSegment(segment + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        segment++;
+        written = segment * segmentBytes;
+    }
+
+    private void flushLoop() {
+        lock.lock();
+        try {
+            while (true) {
+                while (durable >= written && !closed) {
+                    unflushed.awaitUninterruptibly();
+                }
+                if (durable >= written) return;
+                MappedByteBuffer target = log;
+                long base = segment * segmentBytes;
+                long upTo = written;
+                int from = (int) Math.max(durable - base, 0);
+                lock.unlock();
+                try {
+                    target.force(from, (int) (upTo - base) - from);
+                } catch (RuntimeException e) {
+                    lock.lock();
+                    failure = e;
+                    flushed.signalAll();
+                    return;
+                }
+                lock.lock();
+                durable = Math.max(durable, upTo);
+                forces++;
+                flushed.signalAll();
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void snapshot() {
+        StoredJob[] state;
+        long first;
+        lock.lock();
+        try {
+            // The snapshot covers every record before the new segment
+            try {
+                roll();
+            } catch (RuntimeException e) {
+                System.err.println("Job store snapshot failed: " + e);
+                snapshotter = null;
+                return;
+            }
+            first = segment;
+            state = jobs.values().toArray(new StoredJob[0]);
+            sinceSnapshot = 0;
+        } finally {
+            lock.unlock();
+        }
+        try {
+            writeSnapshot(state, first);
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    long number = fileNumber(file, "wal-", ".log");
+                    if (number < 0) number = fileNumber(file, "snapshot-", ".snap");
+                    if (number >= 0 && number < first) Files.delete(file);
+                }
+            }
+        } catch (IOException e) {
+            System.err.println("Job store snapshot failed: " + e);
+        } finally {
+            lock.lock();
+            snapshotter = null;
+            lock.unlock();
+        }
+    }
+
+    private void writeSnapshot(StoredJob[] state, long first) throws IOException {
+        Path temporary = dir.resolve("snapshot.tmp");
+        RecordBuffer entry = new RecordBuffer();
+        ByteBuffer out = ByteBuffer.allocateDirect(1 << 20);
+        CRC32C checksum = new CRC32C();
+        int count = 0;
+        try (FileChannel channel = FileChannel.open(temporary, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            for (int i = 0; i <= state.length; i++) {
+                entry.clear();
+                byte type;
+                if (i < state.length) {
+                    StoredJob stored = state[i];
+                    putNode(entry, stored.node);
+                    entry.buf.putLong(stored.lastDueMillis);
+                    type = JOB;
+                    count++;
+                } else {
+                    entry.buf.putInt(count);
+                    type = SNAPSHOT_END;
+                }
+                ByteBuffer payload = entry.flip();
+                if (out.remaining() < HEADER + payload.remaining()) {
+                    out.flip();
+                    while (out.hasRemaining()) channel.write(out);
+                    out.clear();
+                    if (out.remaining() < HEADER + payload.remaining()) out = ByteBuffer.allocateDirect(HEADER + payload.remaining());
+                }
+                checksum.reset();
+                checksum.update(type);
+                checksum.update(payload);
+                payload.flip();
+                out.putInt(payload.remaining()).putInt((int) checksum.getValue()).put(type).put(payload);
+            }
+            out.flip();
+            while (out.hasRemaining()) channel.write(out);
+            channel.force(true);
+        }
+        Files.move(temporary, dir.resolve(String.format("snapshot-%016d.snap", first)), StandardCopyOption.ATOMIC_MOVE);
+        syncDirectory();
+    }
+
+    private void recover() throws IOException {
+        long start = System.nanoTime();
+        long snapshot = -1;
+        List<Long> segments = new ArrayList<>();
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+            for (Path file : files) {
+                snapshot = Math.max(snapshot, fileNumber(file, "snapshot-", ".snap"));
+                long number = fileNumber(file, "wal-", ".log");
+                if (number >= 0) segments.add(number);
+            }
+        }
+        Collections.sort(segments);
+
+        long first = 0;
+        if (snapshot >= 0) {
+            first = snapshot;
+            try (FileChannel channel = FileChannel.open(dir.resolve(String.format("snapshot-%016d.snap", snapshot)))) {
+                ByteBuffer contents = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                int[] jobCount = {-1};
+                replay(contents, jobCount);
+                if (jobCount[0] != jobs.size()) throw new IOException("Snapshot " + snapshot + " is incomplete");
+            }
+        }
+
+        // Replay segments from the snapshot on; the first bad record, or a gap in the numbering,
+        // ends the log and anything after it is deleted
+        segment = first;
+        int end = 0;
+        boolean torn = false;
+        boolean ended = false;
+        long expected = first;
+        for (long number : segments) {
+            if (number < first) continue;
+            Path path = dir.resolve(String.format("wal-%016d.log", number));
+            if (ended || number != expected) {
+                Files.delete(path);
+                ended = true;
+                continue;
+            }
+            segment = number;
+            expected++;
+            try (FileChannel channel = FileChannel.open(path)) {
+                end = replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), null);
+            }
+            if (end < 0) {
+                end = -end - 1;
+                torn = true;
+                ended = true;
+            }
+        }
+
+        log = openSegment(segment);
+        if (torn) {
+            // Clear the torn record and whatever follows so it can never be mistaken for log again
+            for (int i = end; i < segmentBytes; i++) log.put(i, (byte) 0);
+            log.force();
+        }
+        written = segment * segmentBytes + end;
+        durable = written;
+        recoveryNanos = System.nanoTime() - start;
+    }
+
+    // Applies records until a zero length (the unwritten rest of a segment) or a bad record.
+    // Returns the offset after the last good record, or -(offset + 1) if a bad one followed it.
+    // For a snapshot, jobCount receives the count from its end record.
+    private int replay(ByteBuffer contents, int[] jobCount) {
+        CRC32C checksum = new CRC32C();
+        int offset = 0;
+        while (contents.limit() - offset >= HEADER) {
+            int length = contents.getInt(offset);
+            if (length == 0) return offset;
+            if (length < 0 || length > contents.limit() - offset - HEADER) return -offset - 1;
+            byte type = contents.get(offset + 8);
+            ByteBuffer payload = contents.slice(offset + HEADER, length);
+            checksum.reset();
+            checksum.update(type);
+            checksum.update(payload);
+            if ((int) checksum.getValue() != contents.getInt(offset + 4)) return -offset - 1;
+            payload.rewind();
+            if (type == SNAPSHOT_END) {
+                if (jobCount != null) jobCount[0] = payload.getInt();
+            } else {
+                apply(type, payload);
+            }
+            replayedRecords++;
+            offset += HEADER + length;
+        }
+        return offset;
+    }
+
+    // Updates the in-memory state for one record; payload is left unchanged
+    private void apply(byte type, ByteBuffer payload) {
+        ByteBuffer in = payload.duplicate();
+        switch (type) {
+            case ADD:
+            case JOB: {
+                JobNode node = getNode(in);
+                long lastDueMillis = type == JOB ? in.getLong() : -1;
+                jobs.put(node.jobId, new StoredJob(node, lastDueMillis));
+                break;
+            }
+            case DEPEND: {
+                String jobId = getString(in);
+                String dependsOn = getString(in);
+                StoredJob stored = jobs.get(jobId);
+                if (stored == null) break;
+                JobNode node = stored.node;
+                List<String> dependencies = new ArrayList<>(node.dependencies);
+                dependencies.add(dependsOn);
+                jobs.put(jobId, new StoredJob(node.withDependencies(dependencies), stored.lastDueMillis));
+                break;
+            }
+            case COMPLETE: {
+                String jobId = getString(in);
+                long dueMillis = in.getLong();
+                StoredJob stored = jobs.get(jobId);
+                if (stored == null) break;
+                if (stored.node.isPeriodic) {
+                    jobs.put(jobId, new StoredJob(stored.node, Math.max(stored.lastDueMillis, dueMillis)));
+                } else {
+                    jobs.remove(jobId); // nothing left to run; dependents treat a missing job as done
+                }
+                break;
+            }
+            case CANCEL:
+                jobs.remove(getString(in));
+                break;
+            default:
+                throw new IllegalStateException("Unknown job store record type " + type);
+        }
+    }
+
+    private MappedByteBuffer openSegment(long number) throws IOException {
+        Path path = dir.resolve(String.format("wal-%016d.log", number));
+        boolean created = !Files.exists(path);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            // The mapping stays valid after the channel is closed
+            MappedByteBuffer mapped = channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentBytes);
+            if (created) syncDirectory();
+            return mapped;
+        }
+    }
+
+    // Makes a created or renamed file's directory entry durable
+    private void syncDirectory() {
+        try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+            channel.force(true);
+        } catch (IOException e) {
+            // Not supported on every platform; the file contents themselves are already forced
+        }
+    }
+
+    private static long fileNumber(Path file, String prefix, String suffix) {
+        String name = file.getFileName().toString();
+        if (!name.startsWith(prefix) || !name.endsWith(suffix)) return -1;
+        try {
+            return Long.parseLong(name.substring(prefix.length(), name.length() - suffix.length()));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static void putNode(RecordBuffer out, JobNode node) {
+        out.putString(node.jobId);
+        out.putString(node.jobClassName);
+        out.ensure(4);
+        out.buf.putInt(node.dependencies.size());
+        for (String dependency : node.dependencies) {
+            out.putString(dependency);
+        }
+        out.ensure(30);
+        out.buf.putLong(node.executionTime);
+        out.buf.put((byte) (node.isPeriodic ? 1 : 0));
+        out.buf.putLong(node.period);
+        out.buf.put((byte) node.policy.ordinal());
+        out.buf.putInt(node.maxConcurrency);
+        out.buf.put((byte) (node.group != null ? 1 : 0));
+        if (node.group != null) out.putString(node.group);
+        out.ensure(8); // room for a trailing long
+    }
+
+    private static JobNode getNode(ByteBuffer in) {
+        String jobId = getString(in);
+        String jobClassName = getString(in);
+        int count = in.getInt();
+        List<String> dependencies = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            dependencies.add(getString(in));
+        }
+        long executionTime = in.getLong();
+        boolean isPeriodic = in.get() != 0;
+        long period = in.getLong();
+        PeriodicPolicy policy = POLICIES[in.get()];
+        int maxConcurrency = in.getInt();
+        String group = in.get() != 0 ? getString(in) : null;
+        return new JobNode(jobId, jobClassName, dependencies, executionTime, isPeriodic, period, policy, maxConcurrency, group);
+    }
+
+    private static String getString(ByteBuffer in) {
+        byte[] bytes = new byte[in.getShort() & 0xFFFF];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    // What the store knows about a job; replaced rather than changed, so a snapshot can copy the
+    // references and write them out without holding the lock
+    private static class StoredJob {
+        final JobNode node;
+        final long lastDueMillis; // due time of the last completed run, -1 if none
+
+        StoredJob(JobNode node, long lastDueMillis) {
+            this.node = node;
+            this.lastDueMillis = lastDueMillis;
+        }
+    }
+
+    // Growable buffer a record's payload is encoded into
+    private static class RecordBuffer {
+        ByteBuffer buf = ByteBuffer.allocate(256);
+
+        void clear() {
+            buf.clear();
+        }
+
+        ByteBuffer flip() {
+            return buf.flip();
+        }
+
+        void ensure(int bytes) {
+            if (buf.remaining() >= bytes) return;
+            ByteBuffer bigger = ByteBuffer.allocate(Math.max(buf.capacity() * 2, buf.position() + bytes));
+            buf.flip();
+            buf = bigger.put(buf);
+        }
+
+        void putString(String value) {
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            if (bytes.length > 0xFFFF) throw new IllegalArgumentException("String too long for the job store: " + value);
+            ensure(2 + bytes.length + 8);
+            buf.putShort((short) bytes.length);
+            buf.put(bytes);
+        }
+    }
+}
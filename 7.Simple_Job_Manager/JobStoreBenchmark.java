@@ -0,0 +1,140 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+// Benchmark: persistent JobScheduler with 10^6 jobs. Run with `java -Xmx2g JobStoreBenchmark [dir]`
+// (default: a temporary directory, deleted afterwards).
+//
+// Writes: WRITERS threads add 10^6 jobs through JobScheduler.addJob, each call waiting until
+// its record is on disk, so the flusher's group commits show up as jobs per fsync. A single
+// writer doing the same shows what group commit saves. Then completions are logged the way
+// DagRun does, without waiting: once for every odd-numbered one-shot job, which removes it, and
+// PERIODIC_RUNS times for every periodic one.
+//
+// Recovery: the store is closed and reopened, once with snapshots turned off, so the whole log
+// is replayed, and once with a snapshot every 16MB of log, so only the live jobs and the tail
+// are. The time covers
+// reading the store and rebuilding the scheduler's dependency graph.
+public class JobStoreBenchmark {
+    private static final int JOBS = 1_000_000;
+    private static final int WRITERS = 64;
+    private static final int SINGLE_WRITER_JOBS = 10_000;
+    private static final int PERIODIC_RUNS = 10;
+    private static final int SEGMENT_BYTES = 64 << 20;
+    private static final long SNAPSHOT_EVERY_BYTES = 16 << 20;
+
+    public static void main(String[] args) throws Exception {
+        Path base = args.length > 0 ? Paths.get(args[0]) : Files.createTempDirectory("job-store");
+        try {
+            System.out.printf("%-28s %9s %12s %10s %10s%n", "run", "records", "records/s", "fsyncs", "per fsync");
+            singleWriter(base.resolve("single"));
+            Path full = base.resolve("no-snapshots");
+            Path tail = base.resolve("snapshots");
+            write("no snapshots", full, Long.MAX_VALUE);
+            write("snapshots", tail, SNAPSHOT_EVERY_BYTES);
+
+            System.out.printf("%n%-18s %12s %12s %12s %10s%n", "recovery", "replayed", "store ms", "graph ms", "jobs");
+            recover("full log", full, Long.MAX_VALUE);
+            recover("snapshot + tail", tail, SNAPSHOT_EVERY_BYTES);
+        } finally {
+            if (args.length == 0) delete(base);
+        }
+    }
+
+    private static void singleWriter(Path dir) throws Exception {
+        JobStore store = new JobStore(dir, SEGMENT_BYTES, Long.MAX_VALUE);
+        JobScheduler scheduler = new JobScheduler(new ExecutorTimerService(), store);
+        long start = System.nanoTime();
+        for (int i = 0; i < SINGLE_WRITER_JOBS; i++) {
+            addJob(scheduler, i);
+        }
+        report("1 writer", SINGLE_WRITER_JOBS, System.nanoTime() - start, store.getForces());
+        scheduler.shutdown();
+    }
+
+    private static void write(String name, Path dir, long snapshotEveryBytes) throws Exception {
+        JobStore store = new JobStore(dir, SEGMENT_BYTES, snapshotEveryBytes);
+        JobScheduler scheduler = new JobScheduler(new ExecutorTimerService(), store);
+
+        Thread[] threads = new Thread[WRITERS];
+        long start = System.nanoTime();
+        for (int t = 0; t < WRITERS; t++) {
+            int writer = t;
+            threads[t] = new Thread(() -> {
+                for (int i = writer; i < JOBS; i += WRITERS) addJob(scheduler, i);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        long forces = store.getForces();
+        report(WRITERS + " writers, " + name, JOBS, System.nanoTime() - start, forces);
+
+        start = System.nanoTime();
+        long position = 0;
+        long now = System.currentTimeMillis();
+        int completions = 0;
+        for (int i = 1; i < JOBS; i += 2) {
+            position = store.completed("job-" + i, now);
+            completions++;
+        }
+        for (int run = 0; run < PERIODIC_RUNS; run++) {
+            for (int i = 0; i < JOBS; i += 10) {
+                position = store.completed("job-" + i, now + run);
+                completions++;
+            }
+        }
+        store.awaitDurable(position);
+        report("completions", completions, System.nanoTime() - start, store.getForces() - forces);
+        scheduler.shutdown();
+    }
+
+    private static void recover(String name, Path dir, long snapshotEveryBytes) throws Exception {
+        System.gc();
+        long start = System.nanoTime();
+        JobStore store = new JobStore(dir, SEGMENT_BYTES, snapshotEveryBytes);
+        long storeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        JobScheduler scheduler = new JobScheduler(new ExecutorTimerService(), store);
+        long graphNanos = System.nanoTime() - start;
+        int jobs = store.recoveredJobs(System.currentTimeMillis()).size();
+        System.out.printf("%-18s %12d %12.0f %12.0f %10d%n", name, store.getReplayedRecords(),
+                storeNanos / 1e6, graphNanos / 1e6, jobs);
+        scheduler.shutdown();
+    }
+
+    // Every job is due an hour out and nothing executes it. One in ten is periodic, with each
+    // policy in turn, and every job after the first depends on an earlier one.
+    private static void addJob(JobScheduler scheduler, int i) {
+        List<String> dependencies = i == 0 ? Collections.emptyList() : Collections.singletonList("job-" + (i / 2));
+        boolean periodic = i % 10 == 0;
+        PeriodicPolicy policy = PeriodicPolicy.values()[(i / 10) % PeriodicPolicy.values().length];
+        // Jobs arrive from several writers, so a dependency may not be there yet
+        while (true) {
+            try {
+                scheduler.addJob("job-" + i, "BenchmarkJob", dependencies, 3_600_000, periodic, 60_000,
+                        policy, Integer.MAX_VALUE, null);
+                return;
+            } catch (IllegalArgumentException e) {
+                Thread.onSpinWait();
+            }
+        }
+    }
+
+    private static void report(String name, int records, long nanos, long forces) {
+        System.out.printf("%-28s %9d %12.0f %10d %10.1f%n", name, records, records / (nanos / 1e9),
+                forces, forces == 0 ? 0.0 : (double) records / forces);
+    }
+
+    private static void delete(Path dir) throws IOException {
+        try (Stream<Path> files = Files.walk(dir)) {
+            for (Path file : (Iterable<Path>) files.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(file);
+            }
+        }
+    }
+}
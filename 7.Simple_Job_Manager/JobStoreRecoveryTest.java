@@ -0,0 +1,55 @@
+import java.nio.file.*;
+import java.util.*;
+
+// Recovery followed by graph changes: a periodic job that missed runs while the scheduler was
+// down must still owe them after addDependency swaps in a copy of its node. Run with
+// `java JobStoreRecoveryTest`; it exits non-zero on the first failed check.
+public class JobStoreRecoveryTest {
+    private static final long PERIOD_MILLIS = 50;
+
+    public static void main(String[] args) throws Exception {
+        Path dir = Files.createTempDirectory("job-store-test");
+        try {
+            JobScheduler before = new JobScheduler(new ExecutorTimerService(), new JobStore(dir));
+            before.addJob("periodic", "JobA", Collections.emptyList(), 0, true, PERIOD_MILLIS,
+                    PeriodicPolicy.FIXED_RATE, Integer.MAX_VALUE, null);
+            before.addJob("later", "JobB", Collections.emptyList(), 3_600_000, false, 0,
+                    PeriodicPolicy.FIXED_RATE, Integer.MAX_VALUE, null);
+            before.shutdown(); // never executed, so every run from now on is missed
+            Thread.sleep(6 * PERIOD_MILLIS);
+
+            JobStore store = new JobStore(dir);
+            JobGraph graph = new JobGraph();
+            for (JobNode jobNode : store.recoveredJobs(System.currentTimeMillis())) {
+                graph.add(jobNode.jobId, jobNode);
+            }
+            int owed = find(graph, "periodic").missedRuns;
+            check(owed >= 5, "expected at least 5 missed runs, got " + owed);
+
+            graph.addDependency("periodic", "later");
+            JobNode after = find(graph, "periodic");
+            check(after.dependencies.contains("later"), "dependency not added");
+            check(after.missedRuns == owed, "missed runs went from " + owed + " to " + after.missedRuns);
+            store.close();
+            System.out.println("All checks passed");
+        } finally {
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(dir)) {
+                for (Path file : files) {
+                    Files.delete(file);
+                }
+            }
+            Files.delete(dir);
+        }
+    }
+
+    private static JobNode find(JobGraph graph, String jobId) {
+        for (JobNode jobNode : graph.topologicalOrder()) {
+            if (jobNode.jobId.equals(jobId)) return jobNode;
+        }
+        throw new AssertionError(jobId + " not in the graph");
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}
@@ -11,9 +11,11 @@ public class Main {
             scheduler.addJob("JobB", Arrays.asList("JobA"), 4000, false, 0); // Runs after A
             scheduler.addJob("JobC", Arrays.asList("JobA", "JobB"), 6000, false, 0); // Runs after A and B
 
-            scheduler.addJob("JobA", Collections.emptyList(), 1000, true, 5000);
+            // A second JobA needs its own id
+            scheduler.addJob("JobA-periodic", "JobA", Collections.emptyList(), 1000, true, 5000,
+                    PeriodicPolicy.FIXED_RATE, 1, null);
 
-            scheduler.executeJobs();
+            scheduler.executeJobs().thenAccept(System.out::println);
 
             Thread.sleep(20000);
             scheduler.shutdown();
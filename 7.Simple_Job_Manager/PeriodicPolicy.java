@@ -0,0 +1,15 @@
+// What a periodic job does when a run is due while earlier runs are still going (or are
+// held back by a concurrency limit).
+public enum PeriodicPolicy {
+    // A run is due every period regardless; runs that cannot start yet queue up and start as
+    // soon as a slot frees, up to DagRun.MAX_OWED_RUNS of them, beyond which they are skipped.
+    // With a maxConcurrency of 1 late runs go back to back, as with scheduleAtFixedRate; with
+    // more, runs of the job overlap up to that limit.
+    FIXED_RATE,
+    // The next run is due one period after the previous one finishes; runs never overlap
+    FIXED_DELAY,
+    // A run that is due while the job is running, or cannot get a slot, is dropped
+    SKIP_IF_RUNNING,
+    // Like FIXED_RATE, but any number of missed runs collapse into a single catch-up run
+    COALESCE
+}
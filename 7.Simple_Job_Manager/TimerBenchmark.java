@@ -0,0 +1,84 @@
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+// Benchmark: the timing wheel against the scheduled executor JobScheduler used before, with
+// 10^5 and 10^6 pending timers. Run with `java -Xmx2g TimerBenchmark`. PRODUCERS threads
+// schedule timers due 5-7s out at the same time, then cancel every other one, and the rest are
+// left to fire. Reported per timer: schedule and cancel cost (wall time over all producers,
+// so lock contention shows up), and how late the surviving timers fired.
+public class TimerBenchmark {
+    private static final int[] TIMER_COUNTS = {100_000, 1_000_000};
+    private static final int PRODUCERS = 4;
+    private static final long MIN_DELAY_MILLIS = 5000; // well beyond the time it takes to schedule and cancel 10^6 timers
+    private static final long DELAY_SPREAD_MILLIS = 2000;
+
+    public static void main(String[] args) throws Exception {
+        System.out.printf("%-10s %9s %13s %13s %12s %12s %12s%n",
+                "timer", "timers", "schedule ns", "cancel ns", "late p50 ms", "late p99 ms", "late max ms");
+        for (int timers : TIMER_COUNTS) {
+            run("executor", new ExecutorTimerService(Executors.newScheduledThreadPool(5)), timers);
+            run("wheel", new HierarchicalTimingWheel(), timers);
+        }
+    }
+
+    private static void run(String name, TimerService timer, int timers) throws Exception {
+        long[] deadlines = new long[timers];
+        long[] lateness = new long[timers];
+        Arrays.fill(lateness, Long.MIN_VALUE); // never fired
+        TimerService.Timeout[] timeouts = new TimerService.Timeout[timers];
+        CountDownLatch fired = new CountDownLatch(timers / 2);
+
+        long scheduleNanos = inParallel(timers, i -> {
+            long delay = MIN_DELAY_MILLIS + (i * 7919L) % DELAY_SPREAD_MILLIS;
+            deadlines[i] = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(delay);
+            timeouts[i] = timer.schedule(() -> {
+                lateness[i] = System.nanoTime() - deadlines[i];
+                fired.countDown();
+            }, delay);
+        });
+        long cancelNanos = inParallel(timers, i -> {
+            if ((i & 1) == 1) timeouts[i].cancel();
+        });
+
+        if (!fired.await(MIN_DELAY_MILLIS + DELAY_SPREAD_MILLIS + 10_000, TimeUnit.MILLISECONDS)) {
+            throw new IllegalStateException(name + ": timers did not fire");
+        }
+        Thread.sleep(100); // let any wrongly surviving cancelled timer show itself
+        timer.shutdown();
+
+        long[] survivors = new long[timers / 2];
+        for (int i = 0; i < survivors.length; i++) {
+            survivors[i] = lateness[2 * i];
+            if (lateness[2 * i + 1] != Long.MIN_VALUE) throw new IllegalStateException(name + ": cancelled timer fired");
+        }
+        Arrays.sort(survivors);
+        System.out.printf("%-10s %9d %13.1f %13.1f %12.2f %12.2f %12.2f%n", name, timers,
+                (double) scheduleNanos / timers, (double) cancelNanos / (timers / 2),
+                survivors[survivors.length / 2] / 1e6, survivors[(int) (survivors.length * 0.99)] / 1e6,
+                survivors[survivors.length - 1] / 1e6);
+    }
+
+    interface Step {
+        void run(int i);
+    }
+
+    // Splits [0, timers) across the producer threads; returns the wall time of the whole batch
+    private static long inParallel(int timers, Step step) throws InterruptedException {
+        Thread[] threads = new Thread[PRODUCERS];
+        long start = System.nanoTime();
+        for (int t = 0; t < PRODUCERS; t++) {
+            int from = timers * t / PRODUCERS;
+            int to = timers * (t + 1) / PRODUCERS;
+            threads[t] = new Thread(() -> {
+                for (int i = from; i < to; i++) step.run(i);
+            });
+            threads[t].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        return System.nanoTime() - start;
+    }
+}
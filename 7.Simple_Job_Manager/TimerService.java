@@ -0,0 +1,16 @@
+// Runs tasks after a delay, once or periodically. Tasks run on the timer's own thread(s), so
+// they should only hand work off (e.g. submit it to a pool), never do it.
+public interface TimerService {
+
+    interface Timeout {
+        // Stops the task from running again; a run already in progress is not interrupted
+        void cancel();
+    }
+
+    Timeout schedule(Runnable task, long delayMillis);
+
+    // Fixed rate: the n-th run is due at delayMillis + n * periodMillis from now
+    Timeout scheduleAtFixedRate(Runnable task, long delayMillis, long periodMillis);
+
+    void shutdown();
+}
@@ -0,0 +1,87 @@
+import java.util.Locale;
+
+// What one collection did, handed to every GCListener when it ends. Times are in nanoseconds.
+//
+// A full collection marks from the roots, sweeps or compacts tenured, and then copies the young
+// survivors out like a minor one does. A minor collection only copies: finding the live young
+// objects is the copy itself, and the spaces it empties need no sweep, so its mark and sweep
+// times are zero. Promotion happens in the middle of copying, so it is timed as part of it.
+//
+// Bytes are GCObject.sizeBytes() as of when an object was allocated or last moved; references
+// added in between are counted the next time it moves or a full collection sweeps it.
+class GCEvent {
+    enum Kind { MINOR, FULL }
+
+    static final String CSV_HEADER = "id,kind,startMillis,pauseNanos,markNanos,sweepNanos,copyNanos,marked,copied,"
+            + "promoted,reclaimed,youngBytesBefore,youngBytesAfter,tenuredBytesBefore,tenuredBytesAfter,"
+            + "allocatedBytes,allocationBytesPerSec";
+
+    final long id;              // 1 for a heap's first collection
+    final Kind kind;
+    final long startMillis;     // wall clock, epoch millis
+    final long pauseNanos;
+    final long markNanos;
+    final long sweepNanos;      // sweeping or compacting tenured, and rebuilding the cards
+    final long copyNanos;       // evacuating young objects to the survivor space or tenured
+    final long marked;          // by the mark phase; 0 for a minor collection
+    final long copied;          // young objects copied to the survivor space
+    final long promoted;        // young objects moved to tenured
+    final long reclaimed;       // objects freed, young and tenured
+    final long youngBytesBefore;
+    final long youngBytesAfter;
+    final long tenuredBytesBefore;
+    final long tenuredBytesAfter;
+    final long allocatedBytes;  // by createObject since the previous collection ended
+    final long mutatorNanos;    // from the previous collection's end to this one's start
+
+    GCEvent(long id, Kind kind, long startMillis, long pauseNanos, long markNanos, long sweepNanos, long copyNanos,
+            long marked, long copied, long promoted, long reclaimed, long youngBytesBefore, long youngBytesAfter,
+            long tenuredBytesBefore, long tenuredBytesAfter, long allocatedBytes, long mutatorNanos) {
+        this.id = id;
+        this.kind = kind;
+        this.startMillis = startMillis;
+        this.pauseNanos = pauseNanos;
+        this.markNanos = markNanos;
+        this.sweepNanos = sweepNanos;
+        this.copyNanos = copyNanos;
+        this.marked = marked;
+        this.copied = copied;
+        this.promoted = promoted;
+        this.reclaimed = reclaimed;
+        this.youngBytesBefore = youngBytesBefore;
+        this.youngBytesAfter = youngBytesAfter;
+        this.tenuredBytesBefore = tenuredBytesBefore;
+        this.tenuredBytesAfter = tenuredBytesAfter;
+        this.allocatedBytes = allocatedBytes;
+        this.mutatorNanos = mutatorNanos;
+    }
+
+    // Bytes allocated per second of mutator time leading up to this collection
+    double allocationRate() {
+        return mutatorNanos == 0 ? 0 : allocatedBytes * 1e9 / mutatorNanos;
+    }
+
+    String toCsv() {
+        return String.format(Locale.ROOT, "%d,%s,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%d,%.1f", id, kind, startMillis,
+                pauseNanos, markNanos, sweepNanos, copyNanos, marked, copied, promoted, reclaimed, youngBytesBefore,
+                youngBytesAfter, tenuredBytesBefore, tenuredBytesAfter, allocatedBytes, allocationRate());
+    }
+
+    String toJson() {
+        return String.format(Locale.ROOT, "{\"id\":%d,\"kind\":\"%s\",\"startMillis\":%d,\"pauseNanos\":%d,"
+                        + "\"markNanos\":%d,\"sweepNanos\":%d,\"copyNanos\":%d,\"marked\":%d,\"copied\":%d,"
+                        + "\"promoted\":%d,\"reclaimed\":%d,\"youngBytesBefore\":%d,\"youngBytesAfter\":%d,"
+                        + "\"tenuredBytesBefore\":%d,\"tenuredBytesAfter\":%d,\"allocatedBytes\":%d,"
+                        + "\"allocationBytesPerSec\":%.1f}", id, kind, startMillis, pauseNanos, markNanos, sweepNanos,
+                copyNanos, marked, copied, promoted, reclaimed, youngBytesBefore, youngBytesAfter, tenuredBytesBefore,
+                tenuredBytesAfter, allocatedBytes, allocationRate());
+    }
+
+    @Override
+    public String toString() {
+        return String.format("GC #%d %s: %.2fms (mark %.2fms, sweep %.2fms, copy %.2fms), marked=%d copied=%d "
+                        + "promoted=%d reclaimed=%d, young %dB->%dB, tenured %dB->%dB", id, kind, pauseNanos / 1e6,
+                markNanos / 1e6, sweepNanos / 1e6, copyNanos / 1e6, marked, copied, promoted, reclaimed,
+                youngBytesBefore, youngBytesAfter, tenuredBytesBefore, tenuredBytesAfter);
+    }
+}
@@ -0,0 +1,49 @@
+import java.util.*;
+
+// Keeps the last `capacity` GCEvents in a ring, overwriting the oldest, and exports them as
+// JSON or CSV
+class GCEventLog implements GCListener {
+    private final GCEvent[] ring;
+    private long count; // events ever received
+
+    GCEventLog(int capacity) {
+        this.ring = new GCEvent[capacity];
+    }
+
+    @Override
+    public void onCollection(GCEvent event) {
+        ring[(int) (count++ % ring.length)] = event;
+    }
+
+    // Oldest first
+    List<GCEvent> events() {
+        int size = (int) Math.min(count, ring.length);
+        List<GCEvent> events = new ArrayList<>(size);
+        for (long i = count - size; i < count; i++) {
+            events.add(ring[(int) (i % ring.length)]);
+        }
+        return events;
+    }
+
+    void clear() {
+        Arrays.fill(ring, null);
+        count = 0;
+    }
+
+    String toJson() {
+        StringJoiner json = new StringJoiner(",\n  ", "[\n  ", "\n]");
+        json.setEmptyValue("[]");
+        for (GCEvent event : events()) {
+            json.add(event.toJson());
+        }
+        return json.toString();
+    }
+
+    String toCsv() {
+        StringBuilder csv = new StringBuilder(GCEvent.CSV_HEADER).append('\n');
+        for (GCEvent event : events()) {
+            csv.append(event.toCsv()).append('\n');
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,5 @@
+// Told about every collection of the heaps it is added to. Called on the collecting thread
+// before the mutator resumes, so it should be quick.
+interface GCListener {
+    void onCollection(GCEvent event);
+}
@@ -1,17 +1,46 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
 import java.util.*;
 
 class GCObject {
+    private static final VarHandle MARKED;
+    // Simulated sizes, as on a 64-bit JVM without compressed references
+    private static final int HEADER_BYTES = 16;
+    private static final int REFERENCE_BYTES = 8;
+
+    static {
+        try {
+            MARKED = MethodHandles.lookup().findVarHandle(GCObject.class, "marked", boolean.class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
     String name;
     List<GCObject> references = new ArrayList<>();
     boolean marked = false; // Used in mark phase
     int age = 0; // For promotion tracking
+    int tenuredIndex = -1; // position in the tenured space, -1 while young
+    SimpleJavaGC heap; // the collector that allocated it, for the write barrier
 
     public GCObject(String name) {
         this.name = name;
     }
 
+    // Adding to references directly bypasses the write barrier
     public void addReference(GCObject obj) {
         references.add(obj);
+        // Write barrier: minor collections only find old-to-young references through the cards
+        if (tenuredIndex >= 0 && obj != null && obj.tenuredIndex < 0 && heap != null) heap.dirtyCard(tenuredIndex);
+    }
+
+    // Marks the object unless another marking thread got there first; true for the one that did
+    boolean tryMark() {
+        return !marked && MARKED.compareAndSet(this, false, true);
+    }
+
+    int sizeBytes() {
+        return HEADER_BYTES + REFERENCE_BYTES * references.size();
     }
 
     @Override
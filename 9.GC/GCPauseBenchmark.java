@@ -0,0 +1,93 @@
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.*;
+
+// Benchmark: pause times of minor collections (eden plus dirty cards) against full
+// collections of the whole heap. Run with `java -Xmx2g GCPauseBenchmark [dir]`; given a
+// directory, the GCEvents of each run are written there as CSV.
+//
+// The heap first gets OLD_OBJECTS long-lived objects, reachable from 1000 roots and promoted
+// to tenured. Then each cycle allocates YOUNG_PER_CYCLE objects, of which one in KEEP_EVERY
+// is hung off a random old object with addReference (so the write barrier dirties its card)
+// and the rest are garbage, and collects. The same number of cycles runs with each collector:
+// minor collections, and full ones with a sweeping and with a compacting tenured space.
+// Pauses and phase times come from a GCEventLog, with verbose output off.
+public class GCPauseBenchmark {
+    private static final int OLD_OBJECTS = 1_000_000;
+    private static final int OLD_ROOTS = 1000;
+    private static final int YOUNG_PER_CYCLE = 20_000;
+    private static final int KEEP_EVERY = 20;
+    private static final int CYCLES = 30;
+
+    public static void main(String[] args) throws IOException {
+        System.out.printf("%-14s %8s %10s %10s %10s %10s %10s %10s %10s %10s%n", "pause", "cycles", "mean ms", "p50 ms",
+                "p99 ms", "max ms", "mark ms", "sweep ms", "copy ms", "alloc MB/s");
+        for (boolean compact : new boolean[] {false, true}) {
+            // Eden takes a cycle's allocations without filling, so only the timed collections run
+            SimpleJavaGC gc = new SimpleJavaGC(YOUNG_PER_CYCLE + 1, 4 * YOUNG_PER_CYCLE, 4 * OLD_OBJECTS, 2, compact);
+            List<GCObject> old = buildOldGeneration(gc);
+            GCEventLog events = new GCEventLog(CYCLES);
+            gc.addListener(events);
+            Random random = new Random(42);
+            if (!compact) report("minor", collect(gc, old, random, false, events), args);
+            report(compact ? "full, compact" : "full, sweep", collect(gc, old, random, true, events), args);
+        }
+    }
+
+    private static List<GCObject> buildOldGeneration(SimpleJavaGC gc) {
+        List<GCObject> old = new ArrayList<>(OLD_OBJECTS);
+        GCObject[] tails = new GCObject[OLD_ROOTS];
+        for (int i = 0; i < OLD_ROOTS; i++) {
+            tails[i] = gc.createObject("root" + i);
+            gc.addRoot(tails[i]);
+            old.add(tails[i]);
+        }
+        // A chain grows from every root. Batches keep eden small, and two collections age a
+        // batch past the promotion threshold; each batch is linked from the tenured tail of its
+        // chain through the write barrier.
+        for (int i = OLD_ROOTS; i < OLD_OBJECTS; i++) {
+            GCObject obj = gc.createObject("old");
+            tails[i % OLD_ROOTS].addReference(obj);
+            tails[i % OLD_ROOTS] = obj;
+            old.add(obj);
+            if (i % 10_000 == 0) {
+                gc.garbageCollect();
+                gc.garbageCollect();
+            }
+        }
+        gc.garbageCollect();
+        gc.garbageCollect();
+        return old;
+    }
+
+    private static GCEventLog collect(SimpleJavaGC gc, List<GCObject> old, Random random, boolean full,
+                                         GCEventLog events) {
+        events.clear();
+        for (int cycle = 0; cycle < CYCLES; cycle++) {
+            for (int i = 0; i < YOUNG_PER_CYCLE; i++) {
+                GCObject young = gc.createObject("young");
+                if (i % KEEP_EVERY == 0) old.get(random.nextInt(old.size())).addReference(young);
+            }
+            if (full) {
+                gc.fullCollect();
+            } else {
+                gc.garbageCollect();
+            }
+        }
+        return events;
+    }
+
+    private static void report(String name, GCEventLog log, String[] args) throws IOException {
+        List<GCEvent> events = log.events();
+        long[] sorted = events.stream().mapToLong(e -> e.pauseNanos).sorted().toArray();
+        double mean = Arrays.stream(sorted).average().orElse(0);
+        System.out.printf("%-14s %8d %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f %10.2f %10.1f%n", name, sorted.length,
+                mean / 1e6, sorted[sorted.length / 2] / 1e6, sorted[(int) (sorted.length * 0.99)] / 1e6,
+                sorted[sorted.length - 1] / 1e6,
+                events.stream().mapToLong(e -> e.markNanos).average().orElse(0) / 1e6,
+                events.stream().mapToLong(e -> e.sweepNanos).average().orElse(0) / 1e6,
+                events.stream().mapToLong(e -> e.copyNanos).average().orElse(0) / 1e6,
+                events.stream().mapToDouble(GCEvent::allocationRate).average().orElse(0) / 1e6);
+        if (args.length > 0) Files.writeString(Paths.get(args[0], name.replace(", ", "-") + ".csv"), log.toCsv());
+    }
+}
@@ -3,6 +3,9 @@
 public class GCTest {
     public static void main(String[] args) {
         SimpleJavaGC gc = new SimpleJavaGC();
+        gc.setVerbose(true);
+        GCEventLog events = new GCEventLog(16);
+        gc.addListener(events);
 
         // Structured object creation
         GCObject objA = gc.createObject("A");
@@ -18,5 +21,6 @@ public class GCTest {
         // Trigger GC
         System.out.println("\nTriggering Garbage Collection...");
         gc.garbageCollect();
+        System.out.println("\n" + events.toJson());
     }
 }
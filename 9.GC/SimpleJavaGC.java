@@ -1,19 +1,105 @@
 import java.util.*;
+import java.util.concurrent.CountedCompleter;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicLong;
 
 
 class SimpleJavaGC {
     private static final int EDEN_SIZE = 10;
+    private static final int SURVIVOR_SIZE = 5;
     private static final int TENURED_SIZE = 10;
-    
-    private List<GCObject> edenSpace = new ArrayList<>();
-    private List<GCObject> tenuredSpace = new ArrayList<>();
+    private static final int TENURING_THRESHOLD = 2; // minor collections survived before promotion
+    // A parallel marker with more than this many objects on its stack hands half of them to
+    // another worker, if some are idle
+    private static final int SPLIT_THRESHOLD = 64;
+    // Each card covers this many consecutive tenured slots (as a power of two)
+    private static final int CARD_SHIFT = 6;
+
+    // Young generation: eden, where objects are bump-allocated, and two survivor semispaces.
+    // A minor collection copies the live young objects into the empty survivor space (or
+    // tenured), then empties eden and the other survivor space wholesale and swaps the two.
+    private final GCObject[] eden;
+    private int edenTop;
+    private GCObject[] fromSpace;
+    private int fromTop;
+    private GCObject[] toSpace;
+    private int toTop;
+    // Tenured: promoted objects keep their slot until a full collection. Without compaction,
+    // slots freed by a sweep are reused through freeSlots; with it, live objects slide down and
+    // promotion is a bump of tenuredTop again.
+    private final GCObject[] tenured;
+    private int tenuredTop;
+    private int[] freeSlots = new int[16];
+    private int freeTop;
+    private final int tenuringThreshold;
+    private final boolean compactTenured;
     private Set<GCObject> rootSet = new HashSet<>();
+    // One byte per card of tenured, set by the write barrier in GCObject.addReference when an
+    // object in the card may point into the young generation. A minor collection treats the
+    // young objects those cards point at as extra roots, instead of tracing the whole tenured
+    // space.
+    private byte[] cards = new byte[1];
+    private boolean verbose = false; // print every object as it is marked, copied, swept or promoted
+    private ForkJoinPool markPool;   // null: mark on the collecting thread
+    private GCObject[] markStack = new GCObject[64]; // kept between serial collections
+    // During a minor collection, objects on markStack still to scan: promoted ones, and ones
+    // that failed promotion
+    private int promotedTop;
+    // Live young objects that could go neither to toSpace nor to tenured, both being full. They
+    // stay in eden after the collection (there is room, as they did not fit in a full toSpace)
+    // and garbageCollect follows up with a full collection.
+    private GCObject[] retained = new GCObject[16];
+    private int retainedTop;
+    private double averagePromoted; // per minor collection, decaying
+
+    // Accounting for GCEvent, kept whether or not anyone listens; see there for how bytes count
+    private final List<GCListener> listeners = new ArrayList<>();
+    private long collections;
+    private long lastCollectionEnd = System.nanoTime();
+    private long edenBytes;      // allocated since the last collection
+    private long survivorBytes;  // in fromSpace
+    private long tenuredBytes;
+    private long copiedBytes;    // during a minor collection
+    private int promoted;        // during a minor collection
 
+    public SimpleJavaGC() {
+        this(EDEN_SIZE, SURVIVOR_SIZE, TENURED_SIZE, TENURING_THRESHOLD, false);
+    }
+
+    public SimpleJavaGC(int edenSize, int survivorSize, int tenuredSize, int tenuringThreshold, boolean compactTenured) {
+        this.eden = new GCObject[edenSize];
+        this.fromSpace = new GCObject[survivorSize];
+        this.toSpace = new GCObject[survivorSize];
+        this.tenured = new GCObject[tenuredSize];
+        this.tenuringThreshold = tenuringThreshold;
+        this.compactTenured = compactTenured;
+    }
+
+    // A full eden is collected first. Throws OutOfMemoryError if even a full collection leaves
+    // eden full of live objects.
     public GCObject createObject(String name, GCObject... references) {
+        if (edenTop == eden.length) {
+            // The new object does not exist yet, so what it is about to reference may be reachable
+            // only from the caller: those are roots until the collection is over
+            List<GCObject> pinned = new ArrayList<>(references.length);
+            for (GCObject reference : references) {
+                if (reference != null && rootSet.add(reference)) pinned.add(reference);
+            }
+            try {
+                garbageCollect();
+            } finally {
+                for (GCObject reference : pinned) {
+                    rootSet.remove(reference);
+                }
+            }
+            if (edenTop == eden.length) throw new OutOfMemoryError("SimpleJavaGC heap is full");
+        }
         GCObject obj = new GCObject(name);
-        Collections.addAll(obj.references, references);
-        
-        edenSpace.add(obj);
+        Collections.addAll(obj.references, references); // a young object needs no barrier
+        obj.heap = this;
+
+        eden[edenTop++] = obj;
+        edenBytes += obj.sizeBytes();
         return obj;
     }
 
@@ -21,51 +107,354 @@ class SimpleJavaGC {
         rootSet.add(obj);
     }
 
+    public void addListener(GCListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(GCListener listener) {
+        listeners.remove(listener);
+    }
+
+    public void setVerbose(boolean verbose) {
+        this.verbose = verbose;
+    }
+
+    // With more than one thread, marking is split across a work-stealing pool of that size
+    public void setMarkThreads(int threads) {
+        if (markPool != null) markPool.shutdown();
+        markPool = threads > 1 ? new ForkJoinPool(threads) : null;
+    }
+
+    // A minor collection, unless tenured is not expected to have room for what it promotes, in
+    // which case a full one. The expectation is the survivors (which may all be old enough now)
+    // plus the recent average from eden, capped by everything young. If a minor collection
+    // still runs out of tenured, what could not be promoted stays young and a full collection
+    // follows straight away.
     public void garbageCollect() {
-        System.out.println("\n--- Starting Garbage Collection ---");
-        markPhase();
-        sweepPhase();
-        promoteSurvivors();
+        long expected = Math.min(edenTop + fromTop, fromTop + (long) Math.ceil(averagePromoted));
+        if (tenuredFree() < expected) {
+            fullCollect();
+            return;
+        }
+        minorCollect();
+        if (edenTop > 0) fullCollect();
+    }
+
+    // Collects the young generation alone, copying Cheney-style: evacuates the young roots and
+    // the young objects that dirty cards point at, then scans whatever was evacuated for more.
+    // The work is proportional to the live young objects; dead ones are never visited. Objects
+    // that cannot be promoted because tenured is full are left in eden.
+    public void minorCollect() {
+        long start = System.nanoTime();
+        long allocated = edenBytes;
+        long youngBytes = edenBytes + survivorBytes;
+        long tenuredBefore = tenuredBytes;
+        int young = edenTop + fromTop;
+        copyYoung();
+        long end = System.nanoTime();
+        publish(GCEvent.Kind.MINOR, start, end, allocated, youngBytes, tenuredBefore, 0, 0, 0, end - start,
+                young - fromTop - edenTop - promoted);
     }
 
-    private void markPhase() {
-        System.out.println("Mark Phase: Traversing from roots.");
+    private void copyYoung() {
+        if (verbose) System.out.println("\n--- Starting Minor Garbage Collection ---");
+        int young = edenTop + fromTop;
+        copiedBytes = 0;
+        promoted = 0;
         for (GCObject root : rootSet) {
-            traverseAndMark(root);
+            evacuate(root);
+        }
+        // A card is cleaned as it is scanned, and stays dirty only if something in it still
+        // points at a young object once that object has been evacuated
+        for (int card = 0; card < cards.length; card++) {
+            if (cards[card] == 0) continue;
+            cards[card] = 0;
+            for (int slot = card << CARD_SHIFT, end = Math.min(slot + (1 << CARD_SHIFT), tenuredTop); slot < end; slot++) {
+                GCObject obj = tenured[slot];
+                if (obj == null) continue;
+                for (GCObject ref : obj.references) {
+                    evacuate(ref);
+                    if (ref != null && ref.tenuredIndex < 0) cards[card] = 1;
+                }
+            }
+        }
+        // toSpace doubles as the queue of copied objects still to scan
+        int scan = 0;
+        while (scan < toTop || promotedTop > 0) {
+            if (scan < toTop) {
+                List<GCObject> references = toSpace[scan++].references;
+                for (int i = 0, n = references.size(); i < n; i++) {
+                    evacuate(references.get(i));
+                }
+                continue;
+            }
+            GCObject obj = markStack[--promotedTop];
+            markStack[promotedTop] = null;
+            List<GCObject> references = obj.references;
+            for (int i = 0, n = references.size(); i < n; i++) {
+                GCObject ref = references.get(i);
+                evacuate(ref);
+                // Promoted objects get the same treatment as scanned cards
+                if (ref != null && ref.tenuredIndex < 0 && obj.tenuredIndex >= 0) dirtyCard(obj.tenuredIndex);
+            }
+        }
+        for (int i = 0; i < toTop; i++) {
+            toSpace[i].marked = false;
+        }
+        if (verbose) {
+            System.out.println("Reclaiming " + (young - toTop - retainedTop - promoted) + " young objects.");
+        }
+        Arrays.fill(eden, 0, edenTop, null);
+        edenTop = 0;
+        edenBytes = 0;
+        for (int i = 0; i < retainedTop; i++) {
+            GCObject obj = retained[i];
+            retained[i] = null;
+            obj.marked = false;
+            eden[edenTop++] = obj;
+            edenBytes += obj.sizeBytes();
+        }
+        retainedTop = 0;
+        averagePromoted = 0.7 * averagePromoted + 0.3 * promoted;
+        Arrays.fill(fromSpace, 0, fromTop, null);
+        GCObject[] emptied = fromSpace;
+        fromSpace = toSpace;
+        fromTop = toTop;
+        toSpace = emptied;
+        toTop = 0;
+        survivorBytes = copiedBytes;
+    }
+
+    // Copies a young object that has not been copied yet (marked doubles as the forwarded flag)
+    // into toSpace, or into tenured once it is old enough or toSpace is full. With tenured full,
+    // it stays in toSpace if there is room, and is retained in eden if not.
+    private void evacuate(GCObject obj) {
+        if (obj == null || obj.tenuredIndex >= 0 || obj.marked) return;
+        obj.age++;
+        boolean tenure = obj.age >= tenuringThreshold || toTop == toSpace.length;
+        if (!tenure || tenuredFree() == 0) {
+            obj.marked = true;
+            if (toTop < toSpace.length) {
+                toSpace[toTop++] = obj;
+                copiedBytes += obj.sizeBytes();
+                if (verbose) System.out.println("Copying to Survivor: " + obj.name);
+                return;
+            }
+            if (retainedTop == retained.length) retained = Arrays.copyOf(retained, retainedTop * 2);
+            retained[retainedTop++] = obj;
+            if (promotedTop == markStack.length) markStack = Arrays.copyOf(markStack, promotedTop * 2);
+            markStack[promotedTop++] = obj;
+            if (verbose) System.out.println("Promotion failed, staying in eden: " + obj.name);
+            return;
         }
+        int slot = freeTop > 0 ? freeSlots[--freeTop] : tenuredTop++;
+        tenured[slot] = obj;
+        obj.tenuredIndex = slot;
+        promoted++;
+        tenuredBytes += obj.sizeBytes();
+        if (promotedTop == markStack.length) markStack = Arrays.copyOf(markStack, promotedTop * 2);
+        markStack[promotedTop++] = obj;
+        if (verbose) System.out.println("Promoting to Tenured: " + obj.name);
     }
 
-    private void traverseAndMark(GCObject obj) {
-        if (obj == null || obj.marked) return;
-        obj.marked = true;
-        System.out.println("Marking: " + obj.name);
+    // Collects both generations: marks everything from the roots, sweeps (or compacts) tenured,
+    // then copies the young survivors out with a minor collection, which by then only sees the
+    // cards of live tenured objects
+    public void fullCollect() {
+        long start = System.nanoTime();
+        long allocated = edenBytes;
+        long youngBytes = edenBytes + survivorBytes;
+        long tenuredBefore = tenuredBytes;
+        int young = edenTop + fromTop;
+        if (verbose) System.out.println("\n--- Starting Garbage Collection ---");
+        long marked = markPhase();
+        long markEnd = System.nanoTime();
+        if (verbose) System.out.println((compactTenured ? "Compact" : "Sweep") + " Phase: Reclaiming unmarked tenured objects.");
+        freeTop = 0;
+        int live = 0;
+        int swept = 0;
+        tenuredBytes = 0;
+        for (int slot = 0; slot < tenuredTop; slot++) {
+            GCObject obj = tenured[slot];
+            if (obj != null && obj.marked) {
+                obj.marked = false;
+                tenuredBytes += obj.sizeBytes();
+                if (compactTenured) {
+                    tenured[slot] = null;
+                    tenured[live] = obj;
+                    obj.tenuredIndex = live;
+                }
+                live++;
+                continue;
+            }
+            if (obj != null) {
+                swept++;
+                if (verbose) System.out.println("Sweeping: " + obj.name);
+            }
+            tenured[slot] = null;
+            if (!compactTenured) {
+                if (freeTop == freeSlots.length) freeSlots = Arrays.copyOf(freeSlots, freeTop * 2);
+                freeSlots[freeTop++] = slot;
+            }
+        }
+        if (compactTenured) tenuredTop = live;
+        // Objects moved or died, so the cards are rebuilt from what is left
+        Arrays.fill(cards, (byte) 0);
+        for (int slot = 0; slot < tenuredTop; slot++) {
+            if (tenured[slot] != null && pointsIntoYoung(tenured[slot])) dirtyCard(slot);
+        }
+        for (int i = 0; i < edenTop; i++) {
+            eden[i].marked = false;
+        }
+        for (int i = 0; i < fromTop; i++) {
+            fromSpace[i].marked = false;
+        }
+        long sweepEnd = System.nanoTime();
+        copyYoung();
+        long end = System.nanoTime();
+        publish(GCEvent.Kind.FULL, start, end, allocated, youngBytes, tenuredBefore, marked, markEnd - start,
+                sweepEnd - markEnd, end - sweepEnd, swept + young - fromTop - edenTop - promoted);
+    }
+
+    private void publish(GCEvent.Kind kind, long start, long end, long allocated, long youngBytesBefore,
+                         long tenuredBytesBefore, long marked, long markNanos, long sweepNanos, long copyNanos,
+                         long reclaimed) {
+        GCEvent event = new GCEvent(++collections, kind, System.currentTimeMillis() - (end - start) / 1_000_000,
+                end - start, markNanos, sweepNanos, copyNanos, marked, fromTop, promoted, reclaimed,
+                youngBytesBefore, survivorBytes, tenuredBytesBefore, tenuredBytes, allocated, start - lastCollectionEnd);
+        lastCollectionEnd = end;
+        for (GCListener listener : listeners) {
+            listener.onCollection(event);
+        }
+    }
+
+    // Write barrier, called by GCObject.addReference when a tenured object starts pointing at
+    // a young one
+    void dirtyCard(int tenuredIndex) {
+        int card = tenuredIndex >> CARD_SHIFT;
+        if (card >= cards.length) cards = Arrays.copyOf(cards, Math.max(card + 1, cards.length * 2));
+        cards[card] = 1;
+    }
+
+    private static boolean pointsIntoYoung(GCObject obj) {
         for (GCObject ref : obj.references) {
-            traverseAndMark(ref);
+            if (ref != null && ref.tenuredIndex < 0) return true;
         }
+        return false;
+    }
+
+    private int tenuredFree() {
+        return tenured.length - tenuredTop + freeTop;
     }
 
-    private void sweepPhase() {
-        System.out.println("Sweep Phase: Reclaiming unmarked objects.");
-        edenSpace.removeIf(obj -> !obj.marked);
-        tenuredSpace.removeIf(obj -> !obj.marked);
-        resetMarks();
+    // Marks everything reachable from the roots and returns the number of objects marked
+    long markPhase() {
+        if (verbose) System.out.println("Mark Phase: Traversing from roots.");
+        if (markPool != null) return markParallel();
+        GCObject[] stack = markStack;
+        int top = 0;
+        long marked = 0;
+        // Depth-first with an explicit stack, so a long reference chain cannot overflow the
+        // thread's stack. An object is marked when it is pushed, so it is pushed once.
+        for (GCObject root : rootSet) {
+            if (root == null || root.marked) continue;
+            root.marked = true;
+            if (verbose) System.out.println("Marking: " + root.name);
+            stack[top++] = root;
+            while (top > 0) {
+                GCObject obj = stack[--top];
+                stack[top] = null;
+                marked++;
+                List<GCObject> references = obj.references;
+                for (int i = 0, n = references.size(); i < n; i++) {
+                    GCObject ref = references.get(i);
+                    if (ref == null || ref.marked) continue;
+                    ref.marked = true;
+                    if (verbose) System.out.println("Marking: " + ref.name);
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = ref;
+                }
+            }
+        }
+        markStack = stack;
+        return marked;
     }
 
-    private void promoteSurvivors() {
-        Iterator<GCObject> it = edenSpace.iterator();
-        while (it.hasNext()) {
-            GCObject obj = it.next();
-            obj.age++;
-            if (obj.age > 1 && tenuredSpace.size() < TENURED_SIZE) { // Age threshold for promotion
-                tenuredSpace.add(obj);
-                it.remove();
-                System.out.println("Promoting to Tenured: " + obj.name);
+    // Each worker marks from its own stack, claiming objects with a CAS on the mark bit so that
+    // only one worker traces any object. Idle workers steal the halves that busy ones split off.
+    private long markParallel() {
+        GCObject[] roots = new GCObject[Math.max(rootSet.size(), 1)];
+        int count = 0;
+        for (GCObject root : rootSet) {
+            if (root != null && root.tryMark()) {
+                if (verbose) System.out.println("Marking: " + root.name);
+                roots[count++] = root;
             }
         }
+        AtomicLong marked = new AtomicLong();
+        markPool.invoke(new MarkTask(null, roots, count, marked, verbose));
+        return marked.get();
+    }
+
+    void resetMarks() {
+        for (int i = 0; i < edenTop; i++) {
+            eden[i].marked = false;
+        }
+        for (int i = 0; i < fromTop; i++) {
+            fromSpace[i].marked = false;
+        }
+        for (int slot = 0; slot < tenuredTop; slot++) {
+            if (tenured[slot] != null) tenured[slot].marked = false;
+        }
     }
 
-    private void resetMarks() {
-        edenSpace.forEach(obj -> obj.marked = false);
-        tenuredSpace.forEach(obj -> obj.marked = false);
+    // Marks everything reachable from the objects on its stack, which are already marked.
+    // Completes once it and every task split off from it are done.
+    @SuppressWarnings("serial") // ForkJoinTask is Serializable, but a MarkTask is never serialized
+    private static class MarkTask extends CountedCompleter<Void> {
+        private GCObject[] stack;
+        private int top;
+        private final AtomicLong marked; // shared by every task of one mark phase
+        private final boolean verbose;
+
+        MarkTask(CountedCompleter<?> parent, GCObject[] stack, int top, AtomicLong marked, boolean verbose) {
+            super(parent);
+            this.stack = stack;
+            this.top = top;
+            this.marked = marked;
+            this.verbose = verbose;
+        }
+
+        @Override
+        public void compute() {
+            long traced = 0;
+            while (top > 0) {
+                GCObject obj = stack[--top];
+                stack[top] = null;
+                traced++;
+                List<GCObject> references = obj.references;
+                for (int i = 0, n = references.size(); i < n; i++) {
+                    GCObject ref = references.get(i);
+                    if (ref == null || !ref.tryMark()) continue;
+                    if (verbose) System.out.println("Marking: " + ref.name);
+                    if (top == stack.length) stack = Arrays.copyOf(stack, top * 2);
+                    stack[top++] = ref;
+                }
+                if (top > SPLIT_THRESHOLD && getSurplusQueuedTaskCount() < 2) split();
+            }
+            marked.addAndGet(traced);
+            tryComplete();
+        }
+
+        // Hands the older half of the stack to a new task another worker can steal
+        private void split() {
+            int half = top / 2;
+            GCObject[] given = Arrays.copyOf(stack, Math.max(half, SPLIT_THRESHOLD));
+            System.arraycopy(stack, half, stack, 0, top - half);
+            Arrays.fill(stack, top - half, top, null);
+            top -= half;
+            addToPendingCount(1);
+            new MarkTask(this, given, half, marked, verbose).fork();
+        }
     }
 }
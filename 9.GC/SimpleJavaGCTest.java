@@ -0,0 +1,40 @@
+// Allocation-triggered collections: when createObject finds eden full, what the new object is
+// given to reference must survive the collection even if nothing else reaches it yet, and must
+// stop being a root afterwards. Run with `java SimpleJavaGCTest`; it exits non-zero on the first
+// failed check.
+public class SimpleJavaGCTest {
+
+    public static void main(String[] args) {
+        referencesPassedToCreateObjectSurviveItsCollection();
+        System.out.println("All checks passed");
+    }
+
+    private static void referencesPassedToCreateObjectSurviveItsCollection() {
+        SimpleJavaGC gc = new SimpleJavaGC(3, 5, 10, 2, false);
+        GCEventLog events = new GCEventLog(16);
+        gc.addListener(events);
+
+        GCObject y = gc.createObject("y");
+        gc.createObject("garbage1");
+        gc.createObject("garbage2");
+        GCObject w = gc.createObject("w", y); // eden is full, so this collects first
+        check(events.events().size() == 1, "no collection before allocating w");
+        GCEvent collection = events.events().get(0);
+        check(collection.copied + collection.promoted == 1, "y was not kept: " + collection);
+        check(collection.reclaimed == 2, "expected only the garbage reclaimed: " + collection);
+        check(w.references.size() == 1 && w.references.get(0) == y, "w does not reference y");
+
+        // Nothing roots w, so once the allocation is done y is garbage like the rest
+        gc.createObject("garbage3");
+        gc.createObject("garbage4");
+        gc.createObject("garbage5");
+        check(events.events().size() == 2, "no second collection");
+        collection = events.events().get(1);
+        check(collection.copied + collection.promoted == 0, "y stayed a root: " + collection);
+        check(collection.reclaimed == 4, "expected y, w and two garbage objects reclaimed: " + collection);
+    }
+
+    private static void check(boolean condition, String message) {
+        if (!condition) throw new AssertionError(message);
+    }
+}